@@ -0,0 +1,453 @@
+package mcts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import minimax.Evaluator;
+
+/**
+ * Analyses every position of a PDN file, or of a file with one FEN per
+ * line, and writes one line per position with the best move and its
+ * score, e.g.
+ *
+ *     17 game 2 ply 5 B:W18,...:B1,... best 11-15 score 12 depth 8 nodes 52113 played 9-13 loss 131 blunder
+ *
+ * For positions of a game the line also has the move that was played and
+ * what it lost against the best move, measured by the analysis of the
+ * next position, and is flagged as a blunder if the loss reaches the
+ * threshold. Minimax losses are in score points and MCTS losses in win
+ * rate.
+ *
+ * Positions are read lazily and searched on a pool of workers, each with
+ * its own engine. At most a fixed number of positions are in flight, so
+ * memory stays flat however large the input is, and the results are
+ * written in input order as they complete. Every line starts with the
+ * index of its position, which makes the output file its own checkpoint:
+ * with --resume an interrupted run carries on after the last complete
+ * line.
+ *
+ * With --solve-pieces, positions with at most that many pieces are first
+ * given to a ProofNumberSearch, and a proven win or loss is written with
+ * its proving line instead of the engine's search, marked "solved win N"
+ * or "solved loss N".
+ *
+ * Usage: BatchAnalysis --input games.pdn [--output analysis.txt] [--resume true]
+ *                      [--engine minimax] [--depth 8] [--iterations N] [--movetime MS]
+ *                      [--threads N] [--queue N] [--blunder 100]
+ *                      [--solve-pieces 0] [--solve-nodes 100000]
+ */
+public class BatchAnalysis {
+
+	private Path input;
+	private Supplier<Engine> engines;
+	private SearchLimits limits;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	// Maximum number of positions submitted but not written yet
+	private int queue = 4 * threads;
+
+	// Smallest loss of a blunder, or NaN for 100 score points or a win rate of 0.2
+	private double blunder = Double.NaN;
+
+	// Positions with at most this many pieces are solved first, 0 for none
+	private int solvePieces;
+	private int solveNodes = 100000;
+
+	/**
+	 * Constructor
+	 * @param input   a PDN file, or a file with one FEN per line
+	 * @param engines creates the engine of every worker
+	 * @param limits  the limits of every search
+	 */
+	public BatchAnalysis(Path input, Supplier<Engine> engines, SearchLimits limits) {
+		this.input = input;
+		this.engines = engines;
+		this.limits = limits;
+	}
+
+	/**
+	 * A position to analyse and the move played from it, if any
+	 */
+	private static class Position {
+		long index;
+		int game;
+		int ply;
+		State state;
+		Move played;
+
+		Position(int game, int ply, State state, Move played) {
+			this.game = game;
+			this.ply = ply;
+			this.state = state;
+			this.played = played;
+		}
+	}
+
+	/**
+	 * An analysed position, written once the loss of its played move is
+	 * known
+	 */
+	private static class Analysis {
+		Position position;
+		SearchResult result;
+		// The proof of a solved position, or null
+		ProofNumberSearch.Result solved;
+
+		Analysis(Position position, SearchResult result, ProofNumberSearch.Result solved) {
+			this.position = position;
+			this.result = result;
+			this.solved = solved;
+		}
+	}
+
+	/**
+	 * Analyses the positions after first and writes the results
+	 * @param out   where the lines are written
+	 * @param first the index of the last position already written, or -1
+	 * @return the number of positions analysed
+	 * @throws IOException if the input cannot be read or the output written
+	 * @throws InterruptedException if interrupted while waiting for a search
+	 */
+	public long run(Writer out, long first) throws IOException, InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ThreadLocal<Engine> engine = ThreadLocal.withInitial(engines);
+		ThreadLocal<ProofNumberSearch> solver = ThreadLocal.withInitial(() -> {
+			ProofNumberSearch search = new ProofNumberSearch();
+			search.setMaxNodes(solveNodes);
+			return search;
+		});
+		ArrayDeque<Future<Analysis>> pending = new ArrayDeque<Future<Analysis>>();
+		Analysis previous = null;
+		long count = 0;
+		long index = -1;
+		try (Stream<Position> positions = positions(input)) {
+			Iterator<Position> iterator = positions.iterator();
+			while (iterator.hasNext() || !pending.isEmpty()) {
+				if (iterator.hasNext() && pending.size() < queue) {
+					Position position = iterator.next();
+					if (position.state.isTerminalState()) {
+						continue;
+					}
+					position.index = ++index;
+					if (index > first) {
+						pending.add(pool.submit(() -> analyse(engine.get(), solver.get(), position)));
+					}
+					continue;
+				}
+				// The window is full or the input is done: write the oldest result
+				Analysis analysis = take(pending.poll());
+				if (previous != null) {
+					write(out, previous, analysis);
+				}
+				previous = analysis;
+				count++;
+			}
+			if (previous != null) {
+				write(out, previous, null);
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			pool.shutdownNow();
+			out.flush();
+		}
+		return count;
+	}
+
+	/**
+	 * Solves a position if it is small enough, else searches it
+	 */
+	private Analysis analyse(Engine engine, ProofNumberSearch solver, Position position) {
+		if (solvePieces > 0 && ProofNumberSearch.countPieces(position.state) <= solvePieces) {
+			ProofNumberSearch.Result solved = solver.solve(position.state);
+			List<Move> line = solved.getLine();
+			if (!line.isEmpty()) {
+				boolean win = solved.getOutcome() == ProofNumberSearch.Outcome.WIN;
+				// Scored like a minimax win at the end of the line, or a certain MCTS result
+				double winRate = engine instanceof MCTSCheckers ? (win ? 1 : 0) : Double.NaN;
+				int score = win ? Evaluator.WIN : -Evaluator.WIN;
+				SearchResult result = new SearchResult(line.get(0), score, winRate, line, line.size(),
+						solved.getNodes(), solved.getMillis());
+				return new Analysis(position, result, solved);
+			}
+		}
+		return new Analysis(position, engine.search(position.state, limits), null);
+	}
+
+	private static Analysis take(Future<Analysis> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Analysis failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Writes the line of an analysed position
+	 * @param out      where the line is written
+	 * @param analysis the analysed position
+	 * @param next     the analysis of the position that follows it in the
+	 *                 input, or null
+	 * @throws IOException
+	 */
+	private void write(Writer out, Analysis analysis, Analysis next) throws IOException {
+		Position position = analysis.position;
+		SearchResult result = analysis.result;
+		StringBuilder line = new StringBuilder();
+		line.append(position.index);
+		if (position.game > 0) {
+			line.append(" game ").append(position.game).append(" ply ").append(position.ply);
+		}
+		line.append(' ').append(Fen.toFen(position.state));
+		line.append(" best ").append(result.getMove().getNotation());
+		boolean mcts = !Double.isNaN(result.getWinRate());
+		if (mcts) {
+			line.append(String.format(" winrate %.4f", result.getWinRate()));
+		}
+		else {
+			line.append(" score ").append(result.getScore());
+		}
+		line.append(" depth ").append(result.getDepth());
+		line.append(" nodes ").append(result.getNodes());
+		if (analysis.solved != null) {
+			line.append(" solved ").append(analysis.solved.getOutcome().toString().toLowerCase())
+					.append(' ').append(analysis.solved.getLine().size());
+		}
+		if (position.played != null) {
+			line.append(" played ").append(position.played.getNotation());
+			if (next != null && next.position.game == position.game && next.position.ply == position.ply + 1) {
+				// Both values are for the side to move, so the next one is negated
+				double loss;
+				if (mcts) {
+					loss = result.getWinRate() - (1 - next.result.getWinRate());
+					line.append(String.format(" loss %.4f", Math.max(0, loss)));
+				}
+				else {
+					loss = result.getScore() + next.result.getScore();
+					line.append(" loss ").append(Math.max(0, (int) loss));
+				}
+				double threshold = Double.isNaN(blunder) ? (mcts ? 0.2 : 100) : blunder;
+				if (loss >= threshold && !position.played.equals(result.getMove())) {
+					line.append(" blunder");
+				}
+			}
+		}
+		line.append('\n');
+		out.write(line.toString());
+		out.flush();
+	}
+
+	/**
+	 * Returns the positions of the input file: every position of every
+	 * game of a PDN file, or the positions of a file with one FEN per line
+	 * @param input the input file
+	 * @return the positions, to be closed after use
+	 * @throws IOException if the file cannot be opened
+	 */
+	private static Stream<Position> positions(Path input) throws IOException {
+		if (input.getFileName().toString().toLowerCase().endsWith(".pdn")) {
+			int[] games = { 0 };
+			return Pdn.games(input).flatMap(game -> {
+				int number = ++games[0];
+				List<State> states = game.getStates();
+				List<Move> moves = game.getMoves();
+				Stream.Builder<Position> builder = Stream.builder();
+				for (int ply = 0; ply < states.size(); ply++) {
+					builder.add(new Position(number, ply, states.get(ply), ply < moves.size() ? moves.get(ply) : null));
+				}
+				return builder.build();
+			});
+		}
+		return Files.lines(input, StandardCharsets.UTF_8)
+				.map(String::trim)
+				.filter(line -> !line.isEmpty() && !line.startsWith("#"))
+				.map(line -> new Position(0, 0, Fen.parse(line), null));
+	}
+
+	/**
+	 * Prepares an output file for resuming: drops a partly written last
+	 * line and returns the index of the last complete one
+	 * @param output the output of an interrupted run
+	 * @return the index of the last position written, or -1 if there is none
+	 * @throws IOException
+	 */
+	public static long resume(Path output) throws IOException {
+		if (!Files.exists(output)) {
+			return -1;
+		}
+		long last = -1;
+		long complete = 0;
+		long offset = 0;
+		StringBuilder line = new StringBuilder();
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(output))) {
+			int b;
+			while ((b = in.read()) >= 0) {
+				offset++;
+				if (b != '\n') {
+					if (line.length() < 32) {
+						line.append((char) b);
+					}
+					continue;
+				}
+				complete = offset;
+				int space = line.indexOf(" ");
+				if (space > 0 && Character.isDigit(line.charAt(0))) {
+					last = Long.parseLong(line.substring(0, space));
+				}
+				line.setLength(0);
+			}
+		}
+		if (complete < offset) {
+			try (FileChannel channel = FileChannel.open(output, StandardOpenOption.WRITE)) {
+				channel.truncate(complete);
+			}
+		}
+		return last;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void setQueue(int queue) {
+		this.queue = queue;
+	}
+
+	public void setBlunder(double blunder) {
+		this.blunder = blunder;
+	}
+
+	public void setSolvePieces(int solvePieces) {
+		this.solvePieces = solvePieces;
+	}
+
+	public void setSolveNodes(int solveNodes) {
+		this.solveNodes = solveNodes;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Path input = null;
+		Path output = null;
+		boolean resume = false;
+		String spec = "minimax";
+		SearchLimits limits = new SearchLimits();
+		Integer threads = null;
+		Integer queue = null;
+		Double blunder = null;
+		Integer solvePieces = null;
+		Integer solveNodes = null;
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value for " + args[i]);
+			}
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "--input":
+				input = Paths.get(value);
+				break;
+			case "--output":
+				output = Paths.get(value);
+				break;
+			case "--resume":
+				resume = Boolean.parseBoolean(value);
+				break;
+			case "--engine":
+				spec = value;
+				break;
+			case "--depth":
+				limits.setDepth(Integer.parseInt(value));
+				break;
+			case "--iterations":
+				limits.setIterations(Integer.parseInt(value));
+				break;
+			case "--movetime":
+				limits.setMillis(Long.parseLong(value));
+				break;
+			case "--threads":
+				threads = Integer.parseInt(value);
+				break;
+			case "--queue":
+				queue = Integer.parseInt(value);
+				break;
+			case "--blunder":
+				blunder = Double.parseDouble(value);
+				break;
+			case "--solve-pieces":
+				solvePieces = Integer.parseInt(value);
+				break;
+			case "--solve-nodes":
+				solveNodes = Integer.parseInt(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+		if (input == null) {
+			throw new IllegalArgumentException("Missing --input");
+		}
+		if (limits.getDepth() == 0 && limits.getIterations() == 0 && limits.getMillis() == 0) {
+			limits.setDepth(8);
+			limits.setIterations(10000);
+		}
+		BatchAnalysis analysis = new BatchAnalysis(input, Engines.factory(spec), limits);
+		if (threads != null) {
+			analysis.setThreads(threads);
+			analysis.setQueue(4 * threads);
+		}
+		if (queue != null) {
+			analysis.setQueue(queue);
+		}
+		if (blunder != null) {
+			analysis.setBlunder(blunder);
+		}
+		if (solvePieces != null) {
+			analysis.setSolvePieces(solvePieces);
+		}
+		if (solveNodes != null) {
+			analysis.setSolveNodes(solveNodes);
+		}
+		long first = -1;
+		Writer out;
+		if (output == null) {
+			out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+		}
+		else {
+			if (resume) {
+				first = resume(output);
+			}
+			out = Files.newBufferedWriter(output, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+					resume ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		long start = System.currentTimeMillis();
+		try {
+			long count = analysis.run(out, first);
+			long millis = System.currentTimeMillis() - start;
+			System.err.println("# positions " + count + " time " + millis + " ms"
+					+ (first >= 0 ? " resumed after " + first : ""));
+		} finally {
+			if (output != null) {
+				out.close();
+			}
+		}
+	}
+}
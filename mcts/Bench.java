@@ -0,0 +1,109 @@
+package mcts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fixed-depth search benchmark. Every engine searches the same positions
+ * (the initial state and positions reached by seeded random plies) with the
+ * same limits, and the nodes, time and nodes per second are printed per
+ * position and in total, so that changes to the search can be compared by
+ * the number of nodes they need. Without --depth, --nodes or --movetime,
+ * a Strength level such as "medium" searches with its own node and time
+ * budget and other engines search to depth 8.
+ *
+ * Usage: Bench [--depth 8] [--nodes N] [--movetime MS] [--positions 16] [--random-plies 6]
+ *              [--seed 1] engine-spec...
+ */
+public class Bench {
+
+	/**
+	 * Returns the benchmark positions: the initial state followed by
+	 * positions reached from it by random legal moves
+	 * @param count       the number of positions
+	 * @param randomPlies the number of random moves of each position
+	 * @param seed        the seed of the random moves
+	 * @return the positions, none of them terminal
+	 */
+	public static List<State> positions(int count, int randomPlies, long seed) {
+		Random random = new Random(seed);
+		List<State> positions = new ArrayList<State>();
+		positions.add(MatchRunner.initialState());
+		while (positions.size() < count) {
+			State state = MatchRunner.initialState();
+			for (int ply = 0; ply < randomPlies && !state.isTerminalState(); ply++) {
+				ArrayList<Move> moves = state.getLegalMoves();
+				state = state.result(moves.get(random.nextInt(moves.size())));
+			}
+			if (!state.isTerminalState()) {
+				positions.add(state);
+			}
+		}
+		return positions;
+	}
+
+	public static void main(String[] args) {
+		SearchLimits limits = new SearchLimits();
+		int count = 16;
+		int randomPlies = 6;
+		long seed = 1;
+		List<String> specs = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].startsWith("--") && i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value for " + args[i]);
+			}
+			switch (args[i]) {
+			case "--depth":
+				limits.setDepth(Integer.parseInt(args[++i]));
+				break;
+			case "--nodes":
+				limits.setNodes(Long.parseLong(args[++i]));
+				break;
+			case "--movetime":
+				limits.setMillis(Long.parseLong(args[++i]));
+				break;
+			case "--positions":
+				count = Integer.parseInt(args[++i]);
+				break;
+			case "--random-plies":
+				randomPlies = Integer.parseInt(args[++i]);
+				break;
+			case "--seed":
+				seed = Long.parseLong(args[++i]);
+				break;
+			default:
+				specs.add(args[i]);
+			}
+		}
+		// Without limits, levels search with their own budget and other engines to depth 8
+		boolean defaultLimits = limits.getDepth() == 0 && limits.getMillis() == 0 && limits.getNodes() == 0;
+		SearchLimits defaultDepth = new SearchLimits();
+		defaultDepth.setDepth(8);
+		if (specs.isEmpty()) {
+			specs.add("minimax");
+		}
+		List<State> positions = positions(count, randomPlies, seed);
+		for (String spec : specs) {
+			Engine engine = Engines.create(spec);
+			Strength level = Strength.find(spec);
+			SearchLimits specLimits = !defaultLimits ? limits : level != null ? level.getLimits() : defaultDepth;
+			long totalNodes = 0;
+			long totalMillis = 0;
+			long totalDepth = 0;
+			System.out.println("# " + spec);
+			for (int i = 0; i < positions.size(); i++) {
+				SearchResult result = engine.search(positions.get(i), specLimits);
+				totalNodes += result.getNodes();
+				totalMillis += result.getMillis();
+				totalDepth += result.getDepth();
+				System.out.println((i + 1) + " " + Fen.toFen(positions.get(i)) + " " + EngineProtocol.info(result));
+			}
+			System.out.println("# " + spec + " nodes " + totalNodes + " time " + totalMillis
+					+ " nps " + totalNodes * 1000 / Math.max(1, totalMillis)
+					+ String.format(" depth %.2f", (double) totalDepth / positions.size()));
+			System.out.println("# cache evaluations " + EvalCache.evaluations());
+			System.out.println("# cache playouts " + EvalCache.playouts());
+		}
+	}
+}
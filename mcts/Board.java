@@ -12,12 +12,14 @@ import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
-
-import minimax.MinimaxCheckers;
+import javax.swing.SwingUtilities;
 
 /**
  * A class that builds the board graphics, updates it, and implements the bots' moves
@@ -45,6 +47,27 @@ public class Board extends JPanel implements ActionListener, MouseListener{
 	private boolean moved;
 	private int selectedRow;
 	private int selectedCol;
+	
+	// The AI opponent of the current game, null in 2-player mode
+	private Engine engine;
+	
+	// Runs the AI searches so that the event thread stays responsive
+	private ExecutorService aiExecutor;
+	
+	// The search in progress, if any
+	private Future<?> aiSearch;
+	
+	// Incremented for every new game so results of old searches are dropped
+	private int gameNumber;
+	
+	// true if the AI keeps searching while the human thinks
+	private boolean ponder = true;
+	
+	// Endgames with at most this many pieces are given to the solver before the AI searches
+	private static final int SOLVER_PIECES = 6;
+	
+	// Proves wins in small endgames, see solveMove
+	private ProofNumberSearch solver;
 
 	Board() {
         addMouseListener(this);
@@ -64,11 +87,21 @@ public class Board extends JPanel implements ActionListener, MouseListener{
         medium.addActionListener(this);
         hard.addActionListener(this);
         
+        aiExecutor = Executors.newSingleThreadExecutor(task -> {
+        	Thread thread = new Thread(task, "checkers-ai");
+        	thread.setDaemon(true);
+        	return thread;
+        });
+        
+        solver = new ProofNumberSearch();
+        solver.setMaxNodes(200000);
+        solver.setMillis(2000);
+        
         message = new JLabel("",JLabel.CENTER);
         this.state = new State(new int[8][8], false, 0, 0);
         
         newGameButton.setBounds(1000, 300, 120, 30);
-        resignButton.setBounds(1000, 300, 120, 30);
+        resignButton.setBounds(1000, 340, 120, 30);
         message.setBounds(808, 200, 500, 500);
         twoPlayer.setBounds(900, 300, 120, 30);
         AI.setBounds(1100, 300, 120, 30);
@@ -119,7 +152,9 @@ public class Board extends JPanel implements ActionListener, MouseListener{
 	
 	@Override
 	public void mousePressed(MouseEvent e) {
-		// TODO Auto-generated method stub
+		if (!start || isComputing()) {
+			return;
+		}
 		
         int col = (e.getX() - 3) / 100;
         int row = (e.getY() - 3) / 100;
@@ -199,33 +234,88 @@ public class Board extends JPanel implements ActionListener, MouseListener{
 	
 	public void mouseReleased(MouseEvent evt) {
 		
-		if (state.isPlayersTurn() && !twoPlayerMode) {
-    		if (easyDiff) {
-    			MinimaxCheckers easyAlgo = new MinimaxCheckers(state);
-    			easyAlgo.setDepthLimit(5);
-				Move yourMove = easyAlgo.alphaBetaMove();
-				state = state.result(yourMove);
-				message.setText("RED TURN");
-            }
-    		if (medDiff) {
-	           	MinimaxCheckers medAlgo = new MinimaxCheckers(state);
-	           	medAlgo.setDepthLimit(10);
-				Move yourMove = medAlgo.alphaBetaMove();
-				state = state.result(yourMove);
-				message.setText("RED TURN");
-			}
-    		if (hardDiff) {
-    			MCTSCheckers search = new MCTSCheckers();
-    			search.setRootState(state);
-    			Move hisMove = search.getBestMove();
-				state = state.result(hisMove);
-				message.setText("RED TURN");
-            }
-    		checkWin();
-    		moved=false;
-    		repaint();
-    		return;
-		}	
+		if (state.isPlayersTurn() && !twoPlayerMode && engine != null && !isComputing() && !state.isTerminalState()) {
+			// Search on a copy, the event thread keeps using state for painting
+			State searchState = new State(state.getBoard(), state.isPlayersTurn(), state.getPScore(), state.getOScore());
+			Engine searchEngine = engine;
+			int game = gameNumber;
+			aiSearch = aiExecutor.submit(() -> {
+				Move move = solveMove(searchEngine, searchState);
+				if (move == null) {
+					move = searchEngine.getMove(searchState);
+				}
+				Move aiMove = move;
+				if (!Thread.currentThread().isInterrupted()) {
+					SwingUtilities.invokeLater(() -> applyAIMove(game, aiMove));
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Returns the first move of a proven win when the AI plays a small
+	 * endgame, so that it does not rely on its search there. The easy AI
+	 * always searches.
+	 * @param engine the AI, whose pondering is stopped before solving
+	 * @param state  the state the AI is to move in
+	 * @return the winning move, or null if the win is not proven
+	 */
+	private Move solveMove(Engine engine, State state) {
+		if (easyDiff || ProofNumberSearch.countPieces(state) > SOLVER_PIECES) {
+			return null;
+		}
+		engine.stopPondering();
+		ProofNumberSearch.Result result = solver.solve(state);
+		if (result.getOutcome() == ProofNumberSearch.Outcome.WIN && !result.getLine().isEmpty()) {
+			return result.getLine().get(0);
+		}
+		return null;
+	}
+	
+	/**
+	 * Plays the move found by the AI. Runs on the event thread.
+	 * @param game the game the search was started in
+	 * @param move the move found by the AI
+	 */
+	private void applyAIMove(int game, Move move) {
+		if (game != gameNumber) {
+			return;
+		}
+		aiSearch = null;
+		state = state.result(move);
+		message.setText("RED TURN");
+		if (ponder && !state.isTerminalState()) {
+			engine.startPondering(state);
+		}
+		checkWin();
+		moved = false;
+		repaint();
+	}
+	
+	/**
+	 * Determines if the AI is searching for a move
+	 * @return true if a search is in progress
+	 */
+	public boolean isComputing() {
+		return aiSearch != null && !aiSearch.isDone();
+	}
+	
+	public void setPonder(boolean ponder) {
+		this.ponder = ponder;
+	}
+	
+	/**
+	 * Interrupts the search in progress, including pondering, and drops its result
+	 */
+	public void cancelAIMove() {
+		gameNumber++;
+		if (engine != null) {
+			engine.stopPondering();
+		}
+		if (aiSearch != null) {
+			aiSearch.cancel(true);
+			aiSearch = null;
+		}
 	}
 	
 	
@@ -234,7 +324,14 @@ public class Board extends JPanel implements ActionListener, MouseListener{
 	public void actionPerformed(ActionEvent e) {
 		
         Object src = e.getSource();
-        if (src == newGameButton) {
+        if (src == resignButton) {
+        	cancelAIMove();
+        	resignButton.setVisible(false);
+        	start = false;
+        	message.setText("<html><center>YOU RESIGNED.</center> <br> <center>CLICK NEW GAME TO START AGAIN!</center><html>");
+        	repaint();
+        } else if (src == newGameButton) {
+        	resignButton.setVisible(false);
         	twoPlayer.setVisible(true);
         	AI.setVisible(true);
         	newGameButton.setVisible(false);
@@ -255,15 +352,17 @@ public class Board extends JPanel implements ActionListener, MouseListener{
         	easy.setVisible(true);
         	medium.setVisible(true);
         	hard.setVisible(true);
-        	message.setText("<html>Easy = alpha-beta agent with depth limit of 5 <br>"
-        			+ "Medium = alpha-beta agent with depth limit of 10 <br>"
-        			+ " Insane = MCTS (every move is optimal)<html>");
+        	message.setText("<html>" + describe(Strength.EASY) + " <br>"
+        			+ describe(Strength.MEDIUM) + " <br>"
+        			+ describe(Strength.HARD) + "<html>");
         } else if (src == easy) {
         	easy.setVisible(false);
         	medium.setVisible(false);
         	hard.setVisible(false);
         	newGameButton.setVisible(true);
         	easyDiff = true;
+        	engine = Strength.EASY.createEngine();
+        	resignButton.setVisible(true);
         	start = true;
         	message.setText("<html> GAME START! RED MOVE FIRST <br> <center>DIFFICULTY: EASY</center><html>");
         	cleanBoard();
@@ -273,6 +372,8 @@ public class Board extends JPanel implements ActionListener, MouseListener{
         	hard.setVisible(false);
         	newGameButton.setVisible(true);
         	medDiff = true;
+        	engine = Strength.MEDIUM.createEngine();
+        	resignButton.setVisible(true);
         	start = true;
         	message.setText("<html> GAME START! RED MOVE FIRST <br> <center>DIFFICULTY: MEDIUM</center><html>");
         	cleanBoard();
@@ -282,12 +383,25 @@ public class Board extends JPanel implements ActionListener, MouseListener{
         	hard.setVisible(false);
         	newGameButton.setVisible(true);
         	hardDiff = true;
+        	engine = Strength.HARD.createEngine();
+        	resignButton.setVisible(true);
         	start = true;
         	message.setText("<html> GAME START! RED MOVE FIRST <br> <center>DIFFICULTY: INSANE</center><html>");
         	cleanBoard();
         }
 	}
 
+	/**
+	 * Describes a strength level for the difficulty buttons
+	 * @param strength
+	 * @return the label and the move budget of the level
+	 */
+	private static String describe(Strength strength) {
+		SearchLimits limits = strength.getLimits();
+		return strength.getLabel() + " = " + strength.getSpec() + " agent with " + limits.getNodes()
+				+ " nodes per move, at most " + limits.getMillis() + " ms";
+	}
+
 	public static void initialize(int[][] board) {
 		for (int i = 1; i < 13; i++) {
 			board[posToRow(i)][posToCol(i)] = 1;
@@ -299,6 +413,8 @@ public class Board extends JPanel implements ActionListener, MouseListener{
 	
 	
     public void doNewGame() {
+    	cancelAIMove();
+    	engine = null;
     	int[][] board = new int[8][8];
     	initialize(board);
         state = new State(board, false, 0, 0);
@@ -313,6 +429,7 @@ public class Board extends JPanel implements ActionListener, MouseListener{
     }
     
     public void cleanBoard() {
+    	cancelAIMove();
     	int[][] board = new int[8][8];
     	initialize(board);
         state = new State(board, false, 0, 0);
@@ -412,7 +529,7 @@ public class Board extends JPanel implements ActionListener, MouseListener{
     }
     
     public JButton getResignButton() {
-    	return this.newGameButton;
+    	return this.resignButton;
     }
     
     public JButton getTwoPlayer() {
@@ -0,0 +1,56 @@
+package mcts;
+
+/**
+ * Interface for anything that can pick a move in a state of checkers,
+ * so that the match tools can play the different AIs against each other
+ */
+public interface Engine {
+
+	/**
+	 * Returns the move the engine wants to play in the state
+	 * @param state a non-terminal state
+	 * @return the move selected by the engine
+	 */
+	Move getMove(State state);
+
+	/**
+	 * Searches the state within the limits and returns the best move with
+	 * its score, principal variation and statistics. Engines that do not
+	 * search only fill in the move.
+	 * @param state  a non-terminal state
+	 * @param limits the limits of the search
+	 * @return the result of the search
+	 */
+	default SearchResult search(State state, SearchLimits limits) {
+		return new SearchResult(getMove(state));
+	}
+
+	/**
+	 * Searches the state within the limits and ranks its best moves, for
+	 * analysis. The lines are returned by getLines of the result. Engines
+	 * without a multi-PV mode return the result of search.
+	 * @param state  a non-terminal state
+	 * @param limits the limits of the search
+	 * @param count  the number of moves to rank
+	 * @return the result of the search, with up to count lines
+	 */
+	default SearchResult analyse(State state, SearchLimits limits, int count) {
+		return search(state, limits);
+	}
+
+	/**
+	 * Starts searching in the background on the opponent's time. The next
+	 * call to getMove or search stops the background search and reuses
+	 * its work. Engines that cannot ponder ignore the call.
+	 * @param state the state after the engine's move, with the opponent to move
+	 */
+	default void startPondering(State state) {
+	}
+
+	/**
+	 * Stops the background search started by startPondering, if any
+	 */
+	default void stopPondering() {
+	}
+
+}
@@ -0,0 +1,266 @@
+package mcts;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Line based text protocol for driving the engines from another process,
+ * in the spirit of UCI. One process can analyse any number of positions.
+ *
+ * Commands:
+ *   engine <spec>                          select the engine, e.g. "engine mcts:iterations=8000"
+ *   strength [easy|medium|hard]            select the engine of a Strength level, whose
+ *                                          limits apply to "go" without limits; without
+ *                                          a level, list the levels
+ *   position start [moves <m1> <m2> ...]   set up the initial state and play moves
+ *   position fen <fen> [moves <m1> ...]    set up a FEN position (see Fen) and play moves
+ *   go [depth N] [movetime MS] [nodes N] [iterations N] [multipv K]
+ *                                          search the current position, ranking
+ *                                          its K best moves with multipv
+ *   fen                                    print the FEN of the current position
+ *   cache                                  print the hit rates of the shared caches
+ *   isready                                answered with "readyok"
+ *   quit                                   end the process
+ *
+ * A search is answered with an "info" line followed by "bestmove <move>".
+ * With multipv, one "info multipv <rank>" line is written per ranked move,
+ * and MCTS adds the visit count and the confidence interval of the win rate.
+ * Scores are from the point of view of the side to move: minimax reports
+ * "score <value>" and MCTS reports "winrate <value between 0 and 1>".
+ * Engines with statistics enabled ("stats=true" in the engine specification
+ * or -Dcheckers.stats=true) add an "info stats" line with their counters.
+ * Limits must be at least 1. Errors, including failures of a search, are
+ * answered with "error <message>" and do not end the process.
+ */
+public class EngineProtocol {
+
+	private Engine engine = Engines.create("minimax");
+	private State state = MatchRunner.initialState();
+	private PrintStream out;
+
+	/**
+	 * Constructor
+	 * @param out where the responses are written
+	 */
+	public EngineProtocol(PrintStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Reads and executes commands until "quit" or the end of the input
+	 * @param in the commands
+	 * @throws IOException
+	 */
+	public void run(BufferedReader in) throws IOException {
+		String line;
+		while ((line = in.readLine()) != null) {
+			line = line.trim();
+			if (line.isEmpty()) {
+				continue;
+			}
+			if (line.equals("quit")) {
+				break;
+			}
+			try {
+				execute(line);
+			} catch (IllegalArgumentException e) {
+				out.println("error " + e.getMessage());
+			} catch (RuntimeException e) {
+				// A failed search must not end a long-running client session
+				out.println("error " + e);
+			}
+			out.flush();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Executes a single command
+	 * @param line the command
+	 */
+	public void execute(String line) {
+		String[] words = line.split("\\s+");
+		switch (words[0]) {
+		case "engine":
+			if (words.length != 2) {
+				throw new IllegalArgumentException("usage: engine <spec>");
+			}
+			engine = Engines.create(words[1]);
+			break;
+		case "strength":
+			if (words.length == 1) {
+				for (Strength strength : Strength.values()) {
+					out.println("strength " + strength);
+				}
+			}
+			else if (words.length == 2) {
+				engine = Strength.parse(words[1]).createEngine();
+			}
+			else {
+				throw new IllegalArgumentException("usage: strength [level]");
+			}
+			break;
+		case "position":
+			position(words);
+			break;
+		case "go":
+			go(words);
+			break;
+		case "fen":
+			out.println(Fen.toFen(state));
+			break;
+		case "cache":
+			out.println("cache evaluations " + EvalCache.evaluations());
+			out.println("cache playouts " + EvalCache.playouts());
+			break;
+		case "isready":
+			out.println("readyok");
+			break;
+		default:
+			throw new IllegalArgumentException("unknown command: " + words[0]);
+		}
+	}
+
+	private void position(String[] words) {
+		int i = 1;
+		State newState;
+		if (words.length > 1 && words[1].equals("start")) {
+			newState = MatchRunner.initialState();
+			i = 2;
+		}
+		else if (words.length > 2 && words[1].equals("fen")) {
+			newState = Fen.parse(words[2]);
+			i = 3;
+		}
+		else {
+			throw new IllegalArgumentException("usage: position start|fen <fen> [moves ...]");
+		}
+		if (i < words.length) {
+			if (!words[i].equals("moves")) {
+				throw new IllegalArgumentException("expected moves, got " + words[i]);
+			}
+			for (i++; i < words.length; i++) {
+				newState = newState.result(Move.parse(newState, words[i]));
+			}
+		}
+		state = newState;
+	}
+
+	private void go(String[] words) {
+		SearchLimits limits = new SearchLimits();
+		int multiPv = 0;
+		for (int i = 1; i < words.length; i += 2) {
+			if (i + 1 >= words.length) {
+				throw new IllegalArgumentException("missing value for " + words[i]);
+			}
+			long value;
+			try {
+				value = Long.parseLong(words[i + 1]);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("bad value for " + words[i] + ": " + words[i + 1]);
+			}
+			if (value < 1 || (value > Integer.MAX_VALUE && !words[i].equals("movetime") && !words[i].equals("nodes"))) {
+				throw new IllegalArgumentException("value out of range for " + words[i] + ": " + words[i + 1]);
+			}
+			switch (words[i]) {
+			case "depth":
+				limits.setDepth((int) value);
+				break;
+			case "movetime":
+				limits.setMillis(value);
+				break;
+			case "nodes":
+				limits.setNodes(value);
+				break;
+			case "iterations":
+				limits.setIterations((int) value);
+				break;
+			case "multipv":
+				multiPv = (int) value;
+				break;
+			default:
+				throw new IllegalArgumentException("unknown limit: " + words[i]);
+			}
+		}
+		if (state.isTerminalState()) {
+			throw new IllegalArgumentException("the position is terminal");
+		}
+		if (multiPv > 0) {
+			SearchResult result = engine.analyse(state, limits, multiPv);
+			List<RankedMove> lines = result.getLines();
+			for (int i = 0; i < lines.size(); i++) {
+				out.println(info(result, i + 1, lines.get(i)));
+			}
+			out.println("bestmove " + result.getMove().getNotation());
+			return;
+		}
+		SearchResult result = engine.search(state, limits);
+		out.println(info(result));
+		if (result.getStats() != null) {
+			out.println("info stats " + result.getStats());
+		}
+		out.println("bestmove " + result.getMove().getNotation());
+	}
+
+	/**
+	 * Formats the info line of a search result
+	 * @param result
+	 * @return the info line
+	 */
+	public static String info(SearchResult result) {
+		StringBuilder builder = new StringBuilder("info");
+		builder.append(" depth ").append(result.getDepth());
+		if (Double.isNaN(result.getWinRate())) {
+			builder.append(" score ").append(result.getScore());
+		}
+		else {
+			builder.append(String.format(" winrate %.4f", result.getWinRate()));
+		}
+		builder.append(" nodes ").append(result.getNodes());
+		builder.append(" time ").append(result.getMillis());
+		builder.append(" nps ").append(result.getNodes() * 1000 / Math.max(1, result.getMillis()));
+		builder.append(" pv");
+		List<Move> pv = result.getPv();
+		for (Move move : pv) {
+			builder.append(' ').append(move.getNotation());
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Formats the info line of a ranked move of a multi-PV analysis
+	 * @param result the result of the analysis
+	 * @param rank   the rank of the move, starting at 1
+	 * @param line   the ranked move
+	 * @return the info line
+	 */
+	public static String info(SearchResult result, int rank, RankedMove line) {
+		StringBuilder builder = new StringBuilder("info multipv ").append(rank);
+		builder.append(" depth ").append(result.getDepth());
+		if (Double.isNaN(line.getWinRate())) {
+			builder.append(" score ").append(line.getScore());
+		}
+		else {
+			builder.append(String.format(" winrate %.4f", line.getWinRate()));
+			builder.append(" visits ").append(line.getVisits());
+			if (!Double.isNaN(line.getConfidence())) {
+				builder.append(String.format(" confidence %.4f", line.getConfidence()));
+			}
+		}
+		builder.append(" nodes ").append(result.getNodes());
+		builder.append(" time ").append(result.getMillis());
+		builder.append(" pv");
+		for (Move move : line.getPv()) {
+			builder.append(' ').append(move.getNotation());
+		}
+		return builder.toString();
+	}
+	
+	public static void main(String[] args) throws IOException {
+		EngineProtocol protocol = new EngineProtocol(System.out);
+		protocol.run(new BufferedReader(new InputStreamReader(System.in)));
+	}
+}
@@ -0,0 +1,174 @@
+package mcts;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+import minimax.Evaluator;
+import minimax.MinimaxCheckers;
+import minimax.OffHeapTranspositionTable;
+
+/**
+ * Builds engines from short text specifications such as
+ * "minimax:depth=5,weights=eval.properties", "mcts:iterations=4000,c=1.41,rave=30"
+ * or "random", or from the name of a Strength such as "medium"
+ */
+public class Engines {
+
+	private Engines() {
+	}
+
+	/**
+	 * Returns a supplier that creates a new engine for the specification
+	 * every time it is called, so that every game can own its engines
+	 * @param spec the engine name, optionally followed by ':' and a comma
+	 *             separated list of key=value options
+	 * @return a supplier of new engines
+	 */
+	public static Supplier<Engine> factory(String spec) {
+		create(spec); // fail fast on a bad specification
+		return () -> create(spec);
+	}
+
+	/**
+	 * Creates a new engine from a specification
+	 * @param spec the engine specification
+	 * @return a new engine
+	 */
+	public static Engine create(String spec) {
+		String name = spec;
+		HashMap<String, String> options = new HashMap<String, String>();
+		int colon = spec.indexOf(':');
+		if (colon >= 0) {
+			name = spec.substring(0, colon);
+			for (String option : spec.substring(colon + 1).split(",")) {
+				if (option.isEmpty()) {
+					continue;
+				}
+				int eq = option.indexOf('=');
+				if (eq < 0) {
+					throw new IllegalArgumentException("Bad engine option: " + option);
+				}
+				options.put(option.substring(0, eq).trim(), option.substring(eq + 1).trim());
+			}
+		}
+
+		switch (name.trim().toLowerCase()) {
+		case "minimax":
+			MinimaxCheckers minimax = new MinimaxCheckers();
+			for (String key : options.keySet()) {
+				String value = options.get(key);
+				switch (key) {
+				case "depth":
+					minimax.setDepthLimit(Integer.parseInt(value));
+					break;
+				case "quiescence":
+					minimax.setQuiescence(Boolean.parseBoolean(value));
+					break;
+				case "qdepth":
+					minimax.setMaxQuiescenceDepth(Integer.parseInt(value));
+					break;
+				case "pvs":
+					minimax.setPvs(Boolean.parseBoolean(value));
+					break;
+				case "aspiration":
+					minimax.setAspirationWindow(Integer.parseInt(value));
+					break;
+				case "lmr":
+					minimax.setLateMoveReductions(Boolean.parseBoolean(value));
+					break;
+				case "lmrmoves":
+					minimax.setLateMoves(Integer.parseInt(value));
+					break;
+				case "lmrreduction":
+					minimax.setReduction(Integer.parseInt(value));
+					break;
+				case "lmrdepth":
+					minimax.setMinReductionDepth(Integer.parseInt(value));
+					break;
+				case "futility":
+					minimax.setFutilityPruning(Boolean.parseBoolean(value));
+					break;
+				case "fdepth":
+					minimax.setFutilityDepth(Integer.parseInt(value));
+					break;
+				case "fmargin":
+					minimax.setFutilityMargin(Integer.parseInt(value));
+					break;
+				case "stats":
+					minimax.setStatsEnabled(Boolean.parseBoolean(value));
+					break;
+				case "symmetry":
+					minimax.setSymmetry(Boolean.parseBoolean(value));
+					break;
+				case "hash":
+					minimax.setTranspositionTable(new OffHeapTranspositionTable(Integer.parseInt(value)));
+					break;
+				case "cache":
+					minimax.setEvalCache(Boolean.parseBoolean(value) ? EvalCache.evaluations() : null);
+					break;
+				case "weights":
+					try {
+						minimax.setEvaluator(new Evaluator(Paths.get(value)));
+					} catch (IOException e) {
+						throw new IllegalArgumentException("Cannot read weights " + value + ": " + e.getMessage());
+					}
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown minimax option: " + key);
+				}
+			}
+			return minimax;
+		case "mcts":
+			MCTSCheckers mcts = new MCTSCheckers();
+			for (String key : options.keySet()) {
+				String value = options.get(key);
+				switch (key) {
+				case "iterations":
+					mcts.setIterations(Integer.parseInt(value));
+					break;
+				case "c":
+					mcts.setExploration(Double.parseDouble(value));
+					break;
+				case "rave":
+					mcts.setRave(Double.parseDouble(value));
+					break;
+				case "tt":
+					mcts.setTranspositions(Boolean.parseBoolean(value));
+					break;
+				case "stats":
+					mcts.setStatsEnabled(Boolean.parseBoolean(value));
+					break;
+				case "cache":
+					mcts.setPlayoutCache(Boolean.parseBoolean(value) ? EvalCache.playouts() : null);
+					break;
+				case "prior":
+					mcts.setPriorVisits(Integer.parseInt(value));
+					break;
+				case "maxnodes":
+					mcts.setMaxNodes(Integer.parseInt(value));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown mcts option: " + key);
+				}
+			}
+			return mcts;
+		case "random":
+			if (!options.isEmpty()) {
+				throw new IllegalArgumentException("The random engine takes no options");
+			}
+			return TestMCTS::rando;
+		case "easy":
+		case "medium":
+		case "hard":
+		case "insane":
+			if (!options.isEmpty()) {
+				throw new IllegalArgumentException("Strength levels take no options");
+			}
+			return Strength.parse(name.trim()).createEngine();
+		default:
+			throw new IllegalArgumentException("Unknown engine: " + name);
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package mcts;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Bounded, thread-safe cache of position values keyed on the 64-bit state
+ * hash, shared by all searches of the JVM. The cache is split in segments
+ * with one lock each, and every segment in buckets of four entries; when a
+ * bucket is full, the clock algorithm evicts an entry that was not read
+ * since the clock hand last passed it.
+ *
+ * The minimax player stores its static evaluations in evaluations() and
+ * the MCTS player the outcomes of its playouts in playouts().
+ */
+public class EvalCache {
+
+	// Number of entries of a bucket
+	private static final int WAYS = 4;
+
+	// Entry states
+	private static final byte EMPTY = 0;
+	private static final byte PRESENT = 1;
+	private static final byte REFERENCED = 2;
+
+	private static final EvalCache EVALUATIONS = new EvalCache(20, 6);
+	private static final EvalCache PLAYOUTS = new EvalCache(18, 6);
+
+	private final Segment[] segments;
+	private final int segmentBits;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Constructor
+	 * @param sizeBits    the cache holds 2^sizeBits entries
+	 * @param segmentBits the cache has 2^segmentBits segments
+	 */
+	public EvalCache(int sizeBits, int segmentBits) {
+		this.segmentBits = segmentBits;
+		segments = new Segment[1 << segmentBits];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = new Segment(Math.max(WAYS, 1 << (sizeBits - segmentBits)));
+		}
+	}
+
+	/**
+	 * Returns the cache of static evaluations
+	 * @return the shared cache
+	 */
+	public static EvalCache evaluations() {
+		return EVALUATIONS;
+	}
+
+	/**
+	 * Returns the cache of playout outcomes
+	 * @return the shared cache
+	 */
+	public static EvalCache playouts() {
+		return PLAYOUTS;
+	}
+
+	private Segment segment(long key) {
+		return segments[(int) key & (segments.length - 1)];
+	}
+
+	/**
+	 * Returns the value of a key
+	 * @param key     the hash of the position
+	 * @param missing the value returned if the key is not in the cache
+	 * @return the value, or missing
+	 */
+	public long get(long key, long missing) {
+		Segment segment = segment(key);
+		synchronized (segment) {
+			int slot = segment.find(key >>> segmentBits, key);
+			if (slot < 0) {
+				misses.increment();
+				return missing;
+			}
+			hits.increment();
+			segment.states[slot] = REFERENCED;
+			return segment.values[slot];
+		}
+	}
+
+	/**
+	 * Stores the value of a key
+	 * @param key   the hash of the position
+	 * @param value the value
+	 */
+	public void put(long key, long value) {
+		Segment segment = segment(key);
+		synchronized (segment) {
+			segment.values[segment.slotFor(key >>> segmentBits, key)] = value;
+		}
+	}
+
+	/**
+	 * Combines a value with the stored value of a key
+	 * @param key   the hash of the position
+	 * @param value the new value, stored as is if the key is not in the cache
+	 * @param op    combines the stored value and the new value
+	 * @return the stored value after the call
+	 */
+	public long merge(long key, long value, LongBinaryOperator op) {
+		Segment segment = segment(key);
+		synchronized (segment) {
+			int slot = segment.find(key >>> segmentBits, key);
+			if (slot >= 0) {
+				segment.values[slot] = op.applyAsLong(segment.values[slot], value);
+				return segment.values[slot];
+			}
+			segment.values[segment.slotFor(key >>> segmentBits, key)] = value;
+			return value;
+		}
+	}
+
+	/**
+	 * Removes all entries and resets the statistics
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				Arrays.fill(segment.states, EMPTY);
+			}
+		}
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Returns the fraction of reads that found their key
+	 * @return the hit rate, 0 if there was no read
+	 */
+	public double getHitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	public String toString() {
+		return String.format("hits %d misses %d evictions %d hitrate %.4f",
+				getHits(), getMisses(), getEvictions(), getHitRate());
+	}
+
+	/**
+	 * A part of the cache with its own lock, used as the lock itself
+	 */
+	private class Segment {
+		final long[] keys;
+		final long[] values;
+		final byte[] states;
+
+		// Clock hand of each bucket
+		final byte[] hands;
+		final int bucketMask;
+
+		Segment(int size) {
+			keys = new long[size];
+			values = new long[size];
+			states = new byte[size];
+			hands = new byte[size / WAYS];
+			bucketMask = hands.length - 1;
+		}
+
+		/**
+		 * Returns the slot of a key, or -1
+		 */
+		int find(long bits, long key) {
+			int base = ((int) bits & bucketMask) * WAYS;
+			for (int i = base; i < base + WAYS; i++) {
+				if (states[i] != EMPTY && keys[i] == key) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Returns the slot of a key, claiming a free or evicted slot of its
+		 * bucket if the key is not present
+		 */
+		int slotFor(long bits, long key) {
+			int bucket = (int) bits & bucketMask;
+			int base = bucket * WAYS;
+			int empty = -1;
+			for (int i = base; i < base + WAYS; i++) {
+				if (states[i] == EMPTY) {
+					if (empty < 0) {
+						empty = i;
+					}
+				}
+				else if (keys[i] == key) {
+					return i;
+				}
+			}
+			int slot = empty;
+			while (slot < 0) {
+				int i = base + hands[bucket];
+				hands[bucket] = (byte) ((hands[bucket] + 1) % WAYS);
+				if (states[i] == REFERENCED) {
+					states[i] = PRESENT; // second chance
+				}
+				else {
+					slot = i;
+					evictions.increment();
+				}
+			}
+			keys[slot] = key;
+			states[slot] = PRESENT;
+			return slot;
+		}
+	}
+}
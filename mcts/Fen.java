@@ -0,0 +1,99 @@
+package mcts;
+
+import static mcts.State.*;
+
+/**
+ * Converts states to and from standard FEN strings over the squares 1-32,
+ * in the form used by PDN files, e.g. for the initial state
+ *
+ *     B:W21,22,23,24,25,26,27,28,29,30,31,32:B1,2,3,4,5,6,7,8,9,10,11,12
+ *
+ * The first letter is the side to move, followed by the squares of the
+ * white pieces and of the black pieces, with a K in front of kings and
+ * ranges such as "21-32" allowed when reading. Black moves first and
+ * starts on squares 1-12, so Black is the opponent (2 and 4 in the board
+ * array) and White is the player (1 and 3), and the squares are those of
+ * the move notation (see Move), which turns the board around.
+ */
+public class Fen {
+
+	private Fen() {
+	}
+
+	/**
+	 * Returns the FEN string of a state
+	 * @param state
+	 * @return the FEN string
+	 */
+	public static String toFen(State state) {
+		StringBuilder white = new StringBuilder();
+		StringBuilder black = new StringBuilder();
+		int[][] board = state.getBoard();
+		for (int square = 1; square <= 32; square++) {
+			int pos = Move.square(square);
+			int piece = board[posToRow(pos)][posToCol(pos)];
+			if (piece == 0) {
+				continue;
+			}
+			StringBuilder side = piece == 2 || piece == 4 ? black : white;
+			if (side.length() > 0) {
+				side.append(',');
+			}
+			if (piece > 2) {
+				side.append('K');
+			}
+			side.append(square);
+		}
+		return (state.isPlayersTurn() ? "W" : "B") + ":W" + white + ":B" + black;
+	}
+
+	/**
+	 * Parses a FEN string
+	 * @param fen the FEN string
+	 * @return the state described by fen
+	 * @throws IllegalArgumentException if fen is not a valid FEN string
+	 */
+	public static State parse(String fen) {
+		String[] fields = fen.trim().split(":");
+		if (fields.length < 1 || !(fields[0].equalsIgnoreCase("B") || fields[0].equalsIgnoreCase("W"))) {
+			throw new IllegalArgumentException("Bad FEN: " + fen);
+		}
+		boolean blackToMove = fields[0].equalsIgnoreCase("B");
+		int[][] board = new int[8][8];
+		for (int i = 1; i < fields.length; i++) {
+			String field = fields[i].trim();
+			if (field.isEmpty()) {
+				continue;
+			}
+			char color = Character.toUpperCase(field.charAt(0));
+			if (color != 'B' && color != 'W') {
+				throw new IllegalArgumentException("Bad FEN: " + fen);
+			}
+			for (String square : field.substring(1).split(",")) {
+				square = square.trim();
+				if (square.isEmpty()) {
+					continue;
+				}
+				boolean king = Character.toUpperCase(square.charAt(0)) == 'K';
+				String[] range = (king ? square.substring(1) : square).split("-");
+				int first;
+				int last;
+				try {
+					first = Integer.parseInt(range[0].trim());
+					last = range.length == 2 ? Integer.parseInt(range[1].trim()) : first;
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Bad FEN square: " + square);
+				}
+				if (range.length > 2 || first < 1 || last > 32 || first > last) {
+					throw new IllegalArgumentException("Bad FEN square: " + square);
+				}
+				int piece = color == 'B' ? 2 : 1;
+				for (int s = first; s <= last; s++) {
+					int pos = Move.square(s);
+					board[posToRow(pos)][posToCol(pos)] = king ? piece + 2 : piece;
+				}
+			}
+		}
+		return new State(board, !blackToMove, 0, 0);
+	}
+}
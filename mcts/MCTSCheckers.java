@@ -1,21 +1,85 @@
 package mcts;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
 /**
  * Class that implements Monte Carlo tree search
- * to play checkers
+ * to play checkers. States reached by different move orders share one
+ * node, so the tree is a directed graph; simulations are backed up along
+ * the path they took.
  */
-public class MCTSCheckers {
+public class MCTSCheckers implements Engine {
 	
 	// The root of the search tree
 	private MCTSNode root;
 	private State rootState;
 	
-	// Number of iterations
+	// Default number of iterations
 	private final static int MAXITER = 4000;
 	
-	// Exploration factor
+	// Number of iterations per search
+	private int iterations = MAXITER;
+	
+	// Default exploration factor
 	private final static double C = 1.41;
 	
+	// Exploration factor used by the tree policy
+	private double c = C;
+	
+	// Default RAVE equivalence parameter
+	private final static double RAVE = 30;
+	
+	// RAVE equivalence parameter used by the tree policy, 0 for plain UCT
+	private double rave = RAVE;
+	
+	// Default maximum number of nodes in the graph
+	private final static int MAX_NODES = 200000;
+	
+	// The nodes of the graph by state hash, and their number
+	private HashMap<Long, MCTSNode> table = new HashMap<Long, MCTSNode>();
+	private int nodeCount;
+	
+	// Maximum number of nodes; leaves are simulated without expansion
+	// once the graph is full. The root is always expanded, so that the
+	// search has moves to choose from.
+	private int maxNodes = MAX_NODES;
+	
+	// true if transposed states share their node
+	private boolean transpositions = true;
+	
+	// Default maximum number of earlier playouts a new move starts with
+	private final static int PRIOR_VISITS = 4;
+	
+	// Outcomes of playouts shared with the other searches of the JVM, or
+	// null. A state and its mirror share an entry, keyed by the symmetric
+	// hash and counted for the canonical form (see Symmetry): the wins of
+	// its player in bits 42 to 62, draws in bits 21 to 41 and playouts in
+	// bits 0 to 20. Draws have the utility of a loss, so they are counted
+	// apart to turn the wins of one side into those of the other.
+	private EvalCache playoutCache = EvalCache.playouts();
+	private final static int COUNT_BITS = 21;
+	private final static long COUNT_MASK = (1L << COUNT_BITS) - 1;
+	private int priorVisits = PRIOR_VISITS;
+	
+	// Counters of the current search, null if the statistics are disabled,
+	// and of the last finished search
+	private boolean statsEnabled = Boolean.getBoolean("checkers.stats");
+	private SearchStats stats;
+	private SearchStats lastStats;
+	
+	// Time spent expanding in the current iteration
+	private long expandNanos;
+	
+	// Maximum number of pondering iterations, as a multiple of iterations
+	private final static int PONDER_FACTOR = 25;
+	
+	// The background search started by startPondering, if any
+	private Thread ponderThread;
+	
 	/**
 	 * Constructor
 	 */
@@ -30,8 +94,7 @@ public class MCTSCheckers {
 	 * @param visitedStates
 	 */
 	public MCTSCheckers(State state) {
-		rootState = state;
-		root = new MCTSNode(rootState, null);
+		setRootState(state);
 	}
 	
 	/**
@@ -39,32 +102,364 @@ public class MCTSCheckers {
 	 * the Monte Carlo tree search algorithm
 	 */
 	public Move getBestMove() {
-		for (int i = 0; i < MAXITER; i++) {
-			MCTSNode current = treePolicy();
-			int utility = current.defaultSim();
-			current.backPropagate(utility);
+		long startTime = System.nanoTime();
+		stats = statsEnabled ? new SearchStats() : null;
+		SearchLimits limits = new SearchLimits();
+		limits.setIterations(iterations);
+		SearchEvents.Search event = SearchEvents.begin("mcts", rootState, limits);
+		int count = 0;
+		for (; count < iterations && !Thread.currentThread().isInterrupted(); count++) {
+			iterate();
 		}
-		Move bestMove = root.getMoveForChild().get(root.bestArgs(0));
+		finishStats(startTime, null);
+		Move bestMove;
+		if (root.getChildren().isEmpty()) { // interrupted before the first iteration
+			bestMove = rootState.getLegalMoves().get(0);
+		}
+		else {
+			bestMove = root.getMoveForChild().get(root.bestArgs(0));
+		}
+		SearchEvents.end(event, rootState, limits, bestMove, count, 0);
 		return bestMove;
 	}
 	
-	public MCTSNode treePolicy() {
+	/**
+	 * Searches from state until the iteration or time limit is reached.
+	 * A node limit is used as an iteration limit, since every iteration
+	 * adds one node to the tree.
+	 * @param state  the state to search
+	 * @param limits the limits of the search, the iteration count of
+	 *               this player is used if no limit is set
+	 * @return the best move, its expected outcome and the most likely line
+	 */
+	public SearchResult search(State state, SearchLimits limits) {
+		stopPondering();
+		long startTime = System.nanoTime();
+		setRootState(state);
+		long maxIterations = limits.getIterations() > 0 ? limits.getIterations() : limits.getNodes();
+		long deadline = limits.getMillis() > 0 ? startTime + limits.getMillis() * 1000000L : 0;
+		if (maxIterations <= 0) {
+			maxIterations = deadline != 0 ? Long.MAX_VALUE : iterations;
+		}
+		stats = statsEnabled ? new SearchStats() : null;
+		SearchEvents.Search event = SearchEvents.begin("mcts", state, limits);
+		long count = 0;
+		while (count < maxIterations && (count == 0 || ((deadline == 0 || System.nanoTime() < deadline)
+				&& !Thread.currentThread().isInterrupted()))) {
+			iterate();
+			count++;
+		}
+		Move bestMove = root.getMoveForChild().get(root.bestArgs(0));
+		double q = root.getQ().get(bestMove);
+		ArrayList<Move> pv = getPv();
+		SearchResult result = new SearchResult(bestMove, 0, state.isPlayersTurn() ? q : 1 - q, pv, pv.size(), count,
+				(System.nanoTime() - startTime) / 1000000L);
+		finishStats(startTime, result);
+		SearchEvents.end(event, state, limits, bestMove, count, pv.size());
+		return result;
+	}
+	
+	/**
+	 * Publishes the counters of a finished search
+	 * @param startTime the start time of the search
+	 * @param result    the result of the search, or null
+	 */
+	private void finishStats(long startTime, SearchResult result) {
+		if (stats == null) {
+			return;
+		}
+		stats.setTreeSize(nodeCount);
+		stats.setMillis((System.nanoTime() - startTime) / 1000000L);
+		SearchMonitor.forEngine("mcts").record(stats);
+		lastStats = stats;
+		if (result != null) {
+			result.setStats(stats);
+		}
+		stats = null;
+	}
+	
+	/**
+	 * Searches from state like search and ranks the moves of the root by
+	 * their visit counts. The tree already holds statistics for every
+	 * move, so the ranking costs nothing beyond the search itself.
+	 * @param state  the state to search
+	 * @param limits the limits of the search
+	 * @param count  the number of moves to rank
+	 * @return the best move with the ranked moves as its lines
+	 */
+	public SearchResult analyse(State state, SearchLimits limits, int count) {
+		SearchResult result = search(state, limits);
+		ArrayList<RankedMove> lines = new ArrayList<RankedMove>();
+		ArrayList<Move> moves = root.getMoveForChild();
+		for (int i = 0; i < moves.size(); i++) {
+			Move move = moves.get(i);
+			int visits = root.getCountsByMoves().get(move);
+			double q = root.getQ().get(move);
+			double winRate = state.isPlayersTurn() ? q : 1 - q;
+			double confidence = visits == 0 ? Double.NaN : 1.96 * Math.sqrt(q * (1 - q) / visits);
+			ArrayList<Move> pv = getPv(root.getChildren().get(i));
+			pv.add(0, move);
+			lines.add(new RankedMove(move, 0, winRate, visits, confidence, pv));
+		}
+		lines.sort((a, b) -> Long.compare(b.getVisits(), a.getVisits()));
+		result.setLines(new ArrayList<RankedMove>(lines.subList(0, Math.min(Math.max(1, count), lines.size()))));
+		return result;
+	}
+	
+	/**
+	 * Runs one selection, expansion, simulation and backpropagation step
+	 */
+	private void iterate() {
+		boolean timed = stats != null;
+		long selectStart = timed ? System.nanoTime() : 0;
+		expandNanos = 0;
+		ArrayList<MCTSNode> path = new ArrayList<MCTSNode>();
+		ArrayList<Move> moves = new ArrayList<Move>();
+		MCTSNode current = treePolicy(path, moves);
+		long simulateStart = timed ? System.nanoTime() : 0;
+		int utility = current.defaultSim();
+		if (playoutCache != null) {
+			State state = current.getState();
+			boolean drawn = current.isDrawn();
+			boolean won = Symmetry.isCanonical(state) ? utility == 1 : utility == 0 && !drawn;
+			long outcome = (won ? 1L << 2 * COUNT_BITS : 0) | (drawn ? 1L << COUNT_BITS : 0) | 1;
+			playoutCache.merge(state.getSymmetricHash(), outcome, MCTSCheckers::addOutcomes);
+		}
+		long backpropagateStart = timed ? System.nanoTime() : 0;
+		current.backPropagate(utility, path, moves);
+		if (timed) {
+			stats.addIteration(path.size(), simulateStart - selectStart - expandNanos, expandNanos,
+					backpropagateStart - simulateStart, System.nanoTime() - backpropagateStart);
+		}
+	}
+	
+	/**
+	 * Returns the line of best moves in the tree, starting from the root
+	 * @return the moves of the line
+	 */
+	public ArrayList<Move> getPv() {
+		return getPv(root);
+	}
+	
+	/**
+	 * Returns the line of best moves in the tree, starting from a node
+	 * @param node a node of the tree
+	 * @return the moves of the line
+	 */
+	private ArrayList<Move> getPv(MCTSNode node) {
+		ArrayList<Move> pv = new ArrayList<Move>();
+		Set<MCTSNode> visited = Collections.newSetFromMap(new IdentityHashMap<MCTSNode, Boolean>());
+		while (!node.getChildren().isEmpty() && visited.add(node)) {
+			int arg = node.bestArgs(0);
+			pv.add(node.getMoveForChild().get(arg));
+			node = node.getChildren().get(arg);
+		}
+		return pv;
+	}
+	
+	/**
+	 * Selects the node to simulate from, expanding the graph by one node
+	 * unless it is full and the node is not the root. The selection stops at a state that is already on
+	 * the path, since the checkers rules allow repetitions.
+	 * @param path  filled with the nodes the selection went through
+	 * @param moves filled with the move taken in each node of path
+	 * @return the node to simulate from
+	 */
+	public MCTSNode treePolicy(ArrayList<MCTSNode> path, ArrayList<Move> moves) {
 		MCTSNode currentNode = root;
 		while(!currentNode.getState().isTerminalState()) {
 			if(!currentNode.fullyExpanded()) {
-				return currentNode.expand();
+				if (nodeCount >= maxNodes && currentNode != root) {
+					return currentNode;
+				}
+				long expandStart = stats != null ? System.nanoTime() : 0;
+				path.add(currentNode);
+				Move move = currentNode.nextMove();
+				moves.add(move);
+				State next = currentNode.getState().result(move);
+				MCTSNode child = transpositions ? table.get(next.getHash()) : null;
+				if (child == null) {
+					child = new MCTSNode(next);
+					table.put(next.getHash(), child);
+					nodeCount++;
+				}
+				long outcomes = playoutCache == null ? 0 : playoutCache.get(next.getSymmetricHash(), 0);
+				int count = (int) (outcomes & COUNT_MASK);
+				if (count > 0) {
+					long wins = outcomes >>> 2 * COUNT_BITS;
+					if (!Symmetry.isCanonical(next)) {
+						wins = count - wins - ((outcomes >>> COUNT_BITS) & COUNT_MASK);
+					}
+					currentNode.addChild(move, child, Math.min(count, priorVisits), (double) wins / count);
+				}
+				else {
+					currentNode.addChild(move, child);
+				}
+				if (stats != null) {
+					expandNanos = System.nanoTime() - expandStart;
+				}
+				return child;
 			}
 			else {
-				int arg = currentNode.bestArgs(C);
+				int arg = currentNode.bestArgs(c, rave);
+				path.add(currentNode);
+				moves.add(currentNode.getMoveForChild().get(arg));
 				currentNode = currentNode.getChildren().get(arg);
+				if (path.contains(currentNode)) {
+					return currentNode;
+				}
 			}
 		}
 		return currentNode;
 	}
 	
+	/**
+	 * Searches from state and returns the best move
+	 * @param state
+	 * @return the best move in state
+	 */
+	public Move getMove(State state) {
+		stopPondering();
+		setRootState(state);
+		return getBestMove();
+	}
+	
+	/**
+	 * Keeps growing the tree of state in the background while the
+	 * opponent thinks, which covers all of the opponent's replies. The
+	 * subtree of the reply that is played is reused by the next search.
+	 * @param state the state after this player's move
+	 */
+	public synchronized void startPondering(State state) {
+		stopPondering();
+		if (state.isTerminalState()) {
+			return;
+		}
+		setRootState(state);
+		long maxIterations = (long) PONDER_FACTOR * iterations;
+		ponderThread = new Thread(() -> {
+			for (long i = 0; i < maxIterations && !Thread.currentThread().isInterrupted(); i++) {
+				iterate();
+			}
+		}, "mcts-ponder");
+		ponderThread.setDaemon(true);
+		ponderThread.start();
+	}
+	
+	/**
+	 * Stops the background search and waits for it to end
+	 */
+	public synchronized void stopPondering() {
+		if (ponderThread == null) {
+			return;
+		}
+		ponderThread.interrupt();
+		boolean interrupted = false;
+		while (ponderThread.isAlive()) {
+			try {
+				ponderThread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		ponderThread = null;
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	public void setExploration(double c) {
+		this.c = c;
+	}
+	
+	public void setRave(double rave) {
+		this.rave = rave;
+	}
+	
+	public void setIterations(int iterations) {
+		this.iterations = iterations;
+	}
+	
+	/**
+	 * Sets the state to search from. If the state is already in the
+	 * current graph, its node becomes the new root so that the earlier
+	 * iterations are not lost, and the nodes it cannot reach are dropped.
+	 * @param state
+	 */
 	public void setRootState(State state) {
 		rootState = state;
-		root = new MCTSNode(rootState, null);
+		MCTSNode reused = table.get(state.getHash());
+		root = reused != null ? reused : new MCTSNode(rootState);
+		table = new HashMap<Long, MCTSNode>();
+		nodeCount = 0;
+		Set<MCTSNode> reached = Collections.newSetFromMap(new IdentityHashMap<MCTSNode, Boolean>());
+		ArrayList<MCTSNode> stack = new ArrayList<MCTSNode>();
+		stack.add(root);
+		reached.add(root);
+		while (!stack.isEmpty()) {
+			MCTSNode node = stack.remove(stack.size() - 1);
+			table.putIfAbsent(node.getState().getHash(), node);
+			nodeCount++;
+			for (MCTSNode child : node.getChildren()) {
+				if (reached.add(child)) {
+					stack.add(child);
+				}
+			}
+		}
+	}
+	
+	public void setStatsEnabled(boolean statsEnabled) {
+		this.statsEnabled = statsEnabled;
+	}
+	
+	/**
+	 * Returns the counters of the last finished search
+	 * @return the counters, or null if the statistics were disabled
+	 */
+	public SearchStats getLastStats() {
+		return lastStats;
+	}
+	
+	/**
+	 * Adds the outcomes of playouts in the format of the playout cache,
+	 * halving all counts when the playouts would not fit
+	 * @param a outcomes of earlier playouts
+	 * @param b outcomes of new playouts
+	 * @return the outcomes of both
+	 */
+	private static long addOutcomes(long a, long b) {
+		long sum = a + b;
+		if ((a & COUNT_MASK) + (b & COUNT_MASK) < COUNT_MASK) {
+			return sum;
+		}
+		long wins = (a >>> 2 * COUNT_BITS) + (b >>> 2 * COUNT_BITS);
+		long draws = ((a >>> COUNT_BITS) & COUNT_MASK) + ((b >>> COUNT_BITS) & COUNT_MASK);
+		long playouts = (a & COUNT_MASK) + (b & COUNT_MASK);
+		return (wins / 2) << 2 * COUNT_BITS | (draws / 2) << COUNT_BITS | playouts / 2;
+	}
+	
+	public void setPlayoutCache(EvalCache playoutCache) {
+		this.playoutCache = playoutCache;
+	}
+	
+	public void setPriorVisits(int priorVisits) {
+		this.priorVisits = priorVisits;
+	}
+	
+	public void setMaxNodes(int maxNodes) {
+		this.maxNodes = maxNodes;
+	}
+	
+	public void setTranspositions(boolean transpositions) {
+		this.transpositions = transpositions;
+	}
+	
+	/**
+	 * Returns the number of nodes in the graph
+	 * @return the number of distinct nodes reachable from the root
+	 */
+	public int getNodeCount() {
+		return nodeCount;
 	}
 	
 	public MCTSNode getRoot() {
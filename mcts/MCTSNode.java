@@ -1,6 +1,7 @@
 package mcts;
 
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Class that represents a node in the Monte Carlo
@@ -11,9 +12,6 @@ public class MCTSNode {
 	// The game state of the node
 	private State state;
 	
-	// The parent of this node
-	private MCTSNode parent;
-	
 	// N(s) : number of total visits to this.state
 	private int numVisits; 
 	
@@ -23,6 +21,12 @@ public class MCTSNode {
 	// N(s, a) : total number of times a move was performed in this.state
 	private HashMap<Move, Integer> countsByMove; 
 	
+	// AMAF (all moves as first) statistics: the mean utility and count of
+	// the simulations through this node in which the side to move played
+	// the move at any later point
+	private HashMap<Move, Double> amafQ;
+	private HashMap<Move, Integer> amafCounts;
+	
 	// ArrayLists that store the children of this node and the
 	// corresponding actions that produced them
 	private ArrayList<Move> moveForChild;
@@ -37,17 +41,25 @@ public class MCTSNode {
 	// The Move that is performed during a simulation
 	private Move moveTaken;
 	
+	// The moves of each side in the simulation from this node, until
+	// they are backed up
+	private HashSet<Move> playerMoves;
+	private HashSet<Move> opponentMoves;
+	
+	// true if the last simulation from this node ended in a draw
+	private boolean drawn;
+	
 	private int nthState;
 	
 	/**
-	 * Constructor
+	 * Constructor. A node has no parent link: nodes of transposed states
+	 * have several parents, and a link to the parent of a reused subtree
+	 * would keep the dropped part of the graph alive.
 	 * @param state
-	 * @param parent
 	 */
-	public MCTSNode(State state, MCTSNode parent) {
+	public MCTSNode(State state) {
 		this.state = new State(state.getBoard(), state.isPlayersTurn());
 		this.possibleMoves = this.state.getLegalMoves();
-		this.parent = parent;
 		this.turn = state.isPlayersTurn();
 		this.moveTaken = null;
 		numVisits = 0;
@@ -55,9 +67,13 @@ public class MCTSNode {
 		moveForChild = new ArrayList<Move>();
 		countsByMove = new HashMap<Move, Integer>();
 		Q = new HashMap<Move, Double>();
+		amafCounts = new HashMap<Move, Integer>();
+		amafQ = new HashMap<Move, Double>();
 		for (Move move : possibleMoves) {
 			countsByMove.put(move, 0);
 			Q.put(move, 0.0);
+			amafCounts.put(move, 0);
+			amafQ.put(move, 0.0);
 		}
 		nthState = 0;
 	}
@@ -68,14 +84,47 @@ public class MCTSNode {
 	 */
 	public MCTSNode expand() {
 		Move move = possibleMoves.get(nthState);
+		MCTSNode child = new MCTSNode(state.result(move));
+		addChild(move, child);
+		return child;
+	}
+	
+	/**
+	 * Returns the move that the next expansion adds
+	 * @return the first move without a child
+	 */
+	public Move nextMove() {
+		return possibleMoves.get(nthState);
+	}
+	
+	/**
+	 * Expands the node with a given child, which may already be a child of
+	 * other nodes when the search shares the nodes of transposed states
+	 * @param move  the move returned by nextMove
+	 * @param child the node of the state after move
+	 */
+	public void addChild(Move move, MCTSNode child) {
 		nthState++;
-		MCTSNode child = null;
 		moveTaken = move;
-		child = new MCTSNode(state.result(move), this);
-
 		children.add(child);
 		moveForChild.add(move);
-		return child;
+	}
+	
+	/**
+	 * Expands the node with a given child, starting the statistics of the
+	 * move from earlier playouts of the child's state
+	 * @param move   the move returned by nextMove
+	 * @param child  the node of the state after move
+	 * @param visits the number of earlier playouts to count for the move
+	 * @param q      the mean utility of the earlier playouts
+	 */
+	public void addChild(Move move, MCTSNode child, int visits, double q) {
+		addChild(move, child);
+		if (visits > 0) {
+			countsByMove.put(move, visits);
+			Q.put(move, q);
+			numVisits += visits;
+		}
 	}
 	
 	/***
@@ -86,20 +135,32 @@ public class MCTSNode {
 	public int defaultSim() {
 		State currentState = new State(state.getBoard(), turn);
 		int count = 0;
+		playerMoves = new HashSet<Move>();
+		opponentMoves = new HashSet<Move>();
 		while (!currentState.isTerminalState()) {
 			Move currentMove = defaultPolicy(currentState);
 			if (count == 0) {
 				moveTaken = currentMove;
 			}
+			(currentState.isPlayersTurn() ? playerMoves : opponentMoves).add(currentMove);
 			currentState = currentState.result(currentMove);
 			count++;
 		} 
 		if (count == 0) { // If this.state is a terminal state, add the dummy Move
 			moveTaken = new Move();
 		}
+		drawn = !currentState.playerWins() && !currentState.opponentWins();
 		return currentState.getUtility();
 	}
 	
+	/**
+	 * Tells how the last simulation ended when its utility is 0
+	 * @return true if the last simulation ended in a draw, false if a side won
+	 */
+	public boolean isDrawn() {
+		return drawn;
+	}
+	
 	/***
 	 * Uses the UCT value to select the index of the best action 
 	 * (the action with the highest expected utility) and the corresponding
@@ -109,23 +170,35 @@ public class MCTSNode {
 	 * @return the index of the best action and corresponding child
 	 */
 	public int bestArgs(double c) {
+		return bestArgs(c, 0);
+	}
+	
+	/***
+	 * Selects the index of the best action like bestArgs(c), with the
+	 * expected utility of each action blended with its AMAF value (RAVE).
+	 * The weight of the AMAF value, sqrt(k / (3 N(s, a) + k)), decays as
+	 * the action gets its own visits.
+	 * @param c the exploration factor (theoretically sqrt(2))
+	 * @param k the RAVE equivalence parameter, the number of visits at
+	 *          which the AMAF value still weighs about half, 0 for plain UCT
+	 * @return the index of the best action and corresponding child
+	 */
+	public int bestArgs(double c, double k) {
 		int arg = 0;
-		if (turn) { // Find the action that maximizes UCT value
-			for (int i = 0; i < moveForChild.size(); i++) {
-				double currentQ = Q.get(moveForChild.get(i)) + c * Math.sqrt(Math.log(numVisits) / countsByMove.get(moveForChild.get(i)));
-				double bestQ = Q.get(moveForChild.get(arg)) + c * Math.sqrt(Math.log(numVisits) / countsByMove.get(moveForChild.get(arg)));
-				if (currentQ > bestQ) {
-					arg = i;
-				}
+		double bestValue = 0;
+		for (int i = 0; i < moveForChild.size(); i++) {
+			Move move = moveForChild.get(i);
+			int count = countsByMove.get(move);
+			double q = Q.get(move);
+			if (k > 0 && amafCounts.get(move) > 0) {
+				double beta = Math.sqrt(k / (3.0 * count + k));
+				q = (1 - beta) * q + beta * amafQ.get(move);
 			}
-		}
-		else { // Find the action that minimizes UCT value
-			for (int i = 0; i < moveForChild.size(); i++) {
-				double currentQ = Q.get(moveForChild.get(i)) - c * Math.sqrt(Math.log(numVisits) / countsByMove.get(moveForChild.get(i)));
-				double bestQ = Q.get(moveForChild.get(arg)) - c * Math.sqrt(Math.log(numVisits) / countsByMove.get(moveForChild.get(arg)));
-				if (currentQ < bestQ) {
-					arg = i;
-				}
+			// Maximize the UCT value on the player's turn, minimize it otherwise
+			double value = (turn ? q : -q) + c * Math.sqrt(Math.log(numVisits) / count);
+			if (i == 0 || value > bestValue) {
+				arg = i;
+				bestValue = value;
 			}
 		}
 		moveTaken = moveForChild.get(arg);
@@ -139,26 +212,60 @@ public class MCTSNode {
 	 */
 	public Move defaultPolicy(State s) {
 		ArrayList<Move> moves = s.getLegalMoves(); 
-		int randI = (int) (Math.random() * moves.size());
+		int randI = ThreadLocalRandom.current().nextInt(moves.size());
 		return moves.get(randI);
 	}
 	
 	/**
-	 * Backs the utility of a reached terminal state and other
-	 * values up through the tree after a simulation.
-	 * @param the utility of reached terminal state in a simulation
+	 * Backs the utility up along the path the simulation took, and updates
+	 * the AMAF value of every move of each node that its side to move
+	 * played later in the simulation. Nodes that are shared by transposed
+	 * states have several parents, so the path decides which statistics
+	 * are updated.
+	 * @param utility the utility of the reached terminal state
+	 * @param path    the nodes from the root down to this node, excluded
+	 * @param moves   the move taken in each node of path
 	 */
-	public void backPropagate(int utility) {
-		if (!state.isTerminalState()) {
-			this.numVisits += 1;
-			int newCount = countsByMove.get(moveTaken) + 1;
-			double newQ = Q.get(moveTaken) + (utility - Q.get(moveTaken)) / (1.0 * this.countsByMove.get(moveTaken));
-			this.countsByMove.put(moveTaken, newCount);
-			this.Q.put(moveTaken, newQ);
+	public void backPropagate(int utility, List<MCTSNode> path, List<Move> moves) {
+		if (playerMoves == null) {
+			playerMoves = new HashSet<Move>();
+			opponentMoves = new HashSet<Move>();
+		}
+		if (!path.contains(this)) { // not a repetition of a state on the path
+			update(moveTaken, utility, playerMoves, opponentMoves);
+		}
+		for (int i = path.size() - 1; i >= 0; i--) {
+			path.get(i).update(moves.get(i), utility, playerMoves, opponentMoves);
 		}
+		playerMoves = null;
+		opponentMoves = null;
+	}
+	
+	/**
+	 * Updates the statistics of the node after a simulation
+	 * @param move          the move taken in this node
+	 * @param utility       the utility of the reached terminal state
+	 * @param playerMoves   the moves of the player below this node
+	 * @param opponentMoves the moves of the opponent below this node
+	 */
+	private void update(Move move, int utility, HashSet<Move> playerMoves, HashSet<Move> opponentMoves) {
+		if (state.isTerminalState()) {
+			return;
+		}
+		this.numVisits += 1;
+		int newCount = countsByMove.get(move) + 1;
+		double newQ = Q.get(move) + (utility - Q.get(move)) / (1.0 * newCount);
+		this.countsByMove.put(move, newCount);
+		this.Q.put(move, newQ);
 		
-		if (this.parent != null) {
-			this.parent.backPropagate(utility);
+		HashSet<Move> played = turn ? playerMoves : opponentMoves;
+		played.add(move);
+		for (Move possible : possibleMoves) {
+			if (played.contains(possible)) {
+				int amafCount = amafCounts.get(possible) + 1;
+				amafCounts.put(possible, amafCount);
+				amafQ.put(possible, amafQ.get(possible) + (utility - amafQ.get(possible)) / amafCount);
+			}
 		}
 	}
 	
@@ -190,4 +297,12 @@ public class MCTSNode {
 		return Q;
 	}
 	
+	public HashMap<Move, Integer> getAmafCounts() {
+		return amafCounts;
+	}
+	
+	public HashMap<Move, Double> getAmafQ() {
+		return amafQ;
+	}
+	
 }
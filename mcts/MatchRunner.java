@@ -0,0 +1,426 @@
+package mcts;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Headless engine-vs-engine match runner. Games are played concurrently
+ * on a thread pool, every game with its own engine instances, and one
+ * compact line is printed per finished game instead of the boards.
+ *
+ * Games are played in pairs: both games of a pair start from the same
+ * opening with the colours swapped.
+ *
+ * Usage: MatchRunner --first minimax:depth=5 --second mcts:iterations=1000
+ *                    [--games 100] [--threads N] [--openings file]
+ *                    [--random-plies 4] [--max-plies 200] [--ponder true]
+ *                    [--seed 1] [--pdn games.pdn]
+ *
+ * With --pdn, every finished game is appended to the PDN file as soon as
+ * it ends.
+ */
+public class MatchRunner {
+
+	private Supplier<Engine> first;
+	private Supplier<Engine> second;
+	private String firstName = "first";
+	private String secondName = "second";
+	private int games = 100;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private List<State> openings;
+	private int randomPlies = 4;
+	private int maxPlies = 200;
+	private boolean ponder;
+	private long seed = System.nanoTime();
+	private PrintStream out = System.out;
+
+	// File the games are written to in PDN, or null
+	private Path pdn;
+
+	/**
+	 * Constructor
+	 * @param first  creates the engine the results are reported for
+	 * @param second creates its opponent
+	 */
+	public MatchRunner(Supplier<Engine> first, Supplier<Engine> second) {
+		this.first = first;
+		this.second = second;
+	}
+
+	/**
+	 * Plays the match and returns the totals from the point of view
+	 * of the first engine
+	 * @return the match statistics
+	 * @throws InterruptedException if interrupted while waiting for games
+	 */
+	public MatchStats run() throws InterruptedException {
+		MatchStats stats = new MatchStats();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ExecutorCompletionService<GameResult> completion = new ExecutorCompletionService<GameResult>(pool);
+		BufferedWriter pdnWriter = null;
+		try {
+			if (pdn != null) {
+				pdnWriter = Files.newBufferedWriter(pdn, StandardCharsets.UTF_8);
+			}
+			for (int i = 0; i < games; i++) {
+				final int game = i;
+				final int opening = i / 2;
+				final State start = getOpening(opening);
+				completion.submit(() -> playGame(game, opening, first.get(), second.get(), start, game % 2 == 0,
+						maxPlies, ponder));
+			}
+			for (int i = 0; i < games; i++) {
+				GameResult result;
+				try {
+					result = completion.take().get();
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Game failed", e.getCause());
+				}
+				stats.add(result.score);
+				out.println(result);
+				if (pdnWriter != null) {
+					Pdn.write(pdnWriter, toPdn(result));
+					pdnWriter.flush();
+				}
+				if ((i + 1) % 100 == 0 && i + 1 < games) {
+					out.println("# " + stats);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			pool.shutdownNow();
+			if (pdnWriter != null) {
+				try {
+					pdnWriter.close();
+				} catch (IOException e) {
+					out.println("# cannot close " + pdn + ": " + e.getMessage());
+				}
+			}
+		}
+		out.println("# " + stats);
+		return stats;
+	}
+
+	/**
+	 * Returns the PDN record of a finished game
+	 * @param result the game
+	 * @return the game with its event, round, players and result tags
+	 */
+	public Pdn.Game toPdn(GameResult result) {
+		String outcome = Pdn.result(result.firstIsWhite ? result.score : 1 - result.score);
+		LinkedHashMap<String, String> tags = new LinkedHashMap<String, String>();
+		tags.put("Event", firstName + " vs " + secondName);
+		tags.put("Round", Integer.toString(result.game + 1));
+		tags.put("White", result.firstIsWhite ? firstName : secondName);
+		tags.put("Black", result.firstIsWhite ? secondName : firstName);
+		tags.put("Result", outcome);
+		return new Pdn.Game(tags, result.start, result.moves, outcome);
+	}
+
+	/**
+	 * Returns the start state of an opening, either from the openings
+	 * file or a few random moves from the initial state
+	 * @param opening the opening number
+	 * @return a non-terminal state
+	 */
+	public State getOpening(int opening) {
+		if (openings != null && !openings.isEmpty()) {
+			return openings.get(opening % openings.size());
+		}
+		Random random = new Random(seed + opening);
+		while (true) {
+			State state = initialState();
+			for (int ply = 0; ply < randomPlies && !state.isTerminalState(); ply++) {
+				ArrayList<Move> moves = state.getLegalMoves();
+				state = state.result(moves.get(random.nextInt(moves.size())));
+			}
+			if (!state.isTerminalState()) {
+				return state;
+			}
+		}
+	}
+
+	/**
+	 * Plays one game between two engines
+	 * @param game         the game number
+	 * @param opening      the opening number
+	 * @param first        the engine the result is reported for
+	 * @param second       its opponent
+	 * @param start        the state the game starts from
+	 * @param firstIsWhite true if first plays White, the player's pieces
+	 * @param maxPlies     the number of plies after which the game is drawn
+	 * @param ponder       true if the engines search on the opponent's time
+	 * @return the result of the game
+	 */
+	public static GameResult playGame(int game, int opening, Engine first, Engine second, State start,
+			boolean firstIsWhite, int maxPlies, boolean ponder) {
+		long startTime = System.currentTimeMillis();
+		State state = start;
+		ArrayList<Move> moves = new ArrayList<Move>();
+		try {
+			while (!state.isTerminalState() && moves.size() < maxPlies) {
+				boolean firstToMove = state.isPlayersTurn() == firstIsWhite;
+				Engine engine = firstToMove ? first : second;
+				Move move = engine.getMove(state);
+				moves.add(move);
+				state = state.result(move);
+				if (ponder) {
+					engine.startPondering(state);
+				}
+			}
+		} finally {
+			first.stopPondering();
+			second.stopPondering();
+		}
+		double whiteScore;
+		if (!state.isTerminalState()) {
+			whiteScore = 0.5; // adjudicated at the ply limit
+		}
+		else if (state.playerWins()) {
+			whiteScore = 1;
+		}
+		else if (state.opponentWins()) {
+			whiteScore = 0;
+		}
+		else {
+			whiteScore = 0.5;
+		}
+		double score = firstIsWhite ? whiteScore : 1 - whiteScore;
+		return new GameResult(game, opening, firstIsWhite, score, start, moves, System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Returns the initial state of a game, with Black to move
+	 * @return the initial state
+	 */
+	public static State initialState() {
+		int[][] board = new int[8][8];
+		TestMCTS.initialize(board);
+		return new State(board, false, 0, 0);
+	}
+
+	/**
+	 * Reads openings from a file with one opening per line, written as
+	 * moves from the initial state, e.g. "11-15 23-19". Empty lines and
+	 * lines starting with '#' are skipped.
+	 * @param path
+	 * @return the start states of the openings
+	 * @throws IOException
+	 */
+	public static List<State> loadOpenings(Path path) throws IOException {
+		List<State> openings = new ArrayList<State>();
+		for (String line : Files.readAllLines(path)) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			State state = initialState();
+			for (String move : line.split("\\s+")) {
+				state = state.result(Move.parse(state, move));
+			}
+			openings.add(state);
+		}
+		return openings;
+	}
+
+	public Supplier<Engine> getFirst() {
+		return first;
+	}
+
+	public Supplier<Engine> getSecond() {
+		return second;
+	}
+
+	public void setNames(String firstName, String secondName) {
+		this.firstName = firstName;
+		this.secondName = secondName;
+	}
+
+	public String getFirstName() {
+		return firstName;
+	}
+
+	public String getSecondName() {
+		return secondName;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public int getMaxPlies() {
+		return maxPlies;
+	}
+
+	public void setGames(int games) {
+		this.games = games;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void setOpenings(List<State> openings) {
+		this.openings = openings;
+	}
+
+	public void setRandomPlies(int randomPlies) {
+		this.randomPlies = randomPlies;
+	}
+
+	public void setMaxPlies(int maxPlies) {
+		this.maxPlies = maxPlies;
+	}
+
+	public boolean getPonder() {
+		return ponder;
+	}
+
+	public void setPonder(boolean ponder) {
+		this.ponder = ponder;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void setPdn(Path pdn) {
+		this.pdn = pdn;
+	}
+
+	public void setOutput(PrintStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * The outcome of a single game
+	 */
+	public static class GameResult {
+		public final int game;
+		public final int opening;
+		public final boolean firstIsWhite;
+		// 1 if the first engine won, 0.5 for a draw and 0 for a loss
+		public final double score;
+		public final State start;
+		public final List<Move> moves;
+		public final long millis;
+
+		public GameResult(int game, int opening, boolean firstIsWhite, double score, State start, List<Move> moves,
+				long millis) {
+			this.game = game;
+			this.opening = opening;
+			this.firstIsWhite = firstIsWhite;
+			this.score = score;
+			this.start = start;
+			this.moves = moves;
+			this.millis = millis;
+		}
+
+		public String toString() {
+			String result = score > 0.75 ? "1-0" : score < 0.25 ? "0-1" : "1/2";
+			return String.format("game %d opening %d first %s result %s plies %d ms %d",
+					game + 1, opening + 1, firstIsWhite ? "white" : "black", result, moves.size(), millis);
+		}
+	}
+
+	/**
+	 * Builds a match runner from command line options. Options that the
+	 * match runner does not know are put in extra, or rejected if extra
+	 * is null.
+	 * @param args  the command line options as "--name value" pairs
+	 * @param extra receives the unknown options, may be null
+	 * @return the configured match runner
+	 * @throws IOException if the openings file cannot be read
+	 */
+	public static MatchRunner fromArguments(String[] args, Map<String, String> extra) throws IOException {
+		String first = "minimax:depth=5";
+		String second = "mcts:iterations=1000";
+		List<State> openings = null;
+		int games = 100;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int randomPlies = 4;
+		int maxPlies = 200;
+		boolean ponder = false;
+		Long seed = null;
+		Path pdn = null;
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value for " + args[i]);
+			}
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "--first":
+				first = value;
+				break;
+			case "--second":
+				second = value;
+				break;
+			case "--games":
+				games = Integer.parseInt(value);
+				break;
+			case "--threads":
+				threads = Integer.parseInt(value);
+				break;
+			case "--openings":
+				openings = loadOpenings(Paths.get(value));
+				break;
+			case "--random-plies":
+				randomPlies = Integer.parseInt(value);
+				break;
+			case "--max-plies":
+				maxPlies = Integer.parseInt(value);
+				break;
+			case "--ponder":
+				ponder = Boolean.parseBoolean(value);
+				break;
+			case "--seed":
+				seed = Long.parseLong(value);
+				break;
+			case "--pdn":
+				pdn = Paths.get(value);
+				break;
+			default:
+				if (extra == null) {
+					throw new IllegalArgumentException("Unknown option: " + args[i]);
+				}
+				extra.put(args[i], value);
+			}
+		}
+		MatchRunner runner = new MatchRunner(Engines.factory(first), Engines.factory(second));
+		runner.setNames(first, second);
+		runner.setGames(games);
+		runner.setThreads(threads);
+		runner.setOpenings(openings);
+		runner.setRandomPlies(randomPlies);
+		runner.setMaxPlies(maxPlies);
+		runner.setPonder(ponder);
+		if (seed != null) {
+			runner.setSeed(seed);
+		}
+		runner.setPdn(pdn);
+		return runner;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		MatchRunner runner = fromArguments(args, null);
+		System.out.println("# " + runner.getFirstName() + " vs " + runner.getSecondName());
+		runner.run();
+	}
+}
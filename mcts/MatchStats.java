@@ -0,0 +1,99 @@
+package mcts;
+
+/**
+ * Win/draw/loss totals of a match from the point of view of
+ * the first engine, with a 95% confidence interval on the score
+ * and the corresponding Elo difference
+ */
+public class MatchStats {
+
+	// z value of a two-sided 95% confidence interval
+	private static final double Z95 = 1.96;
+
+	private int wins;
+	private int draws;
+	private int losses;
+
+	/**
+	 * Adds the outcome of a game
+	 * @param score 1 for a win, 0.5 for a draw and 0 for a loss
+	 */
+	public synchronized void add(double score) {
+		if (score > 0.75) {
+			wins++;
+		}
+		else if (score < 0.25) {
+			losses++;
+		}
+		else {
+			draws++;
+		}
+	}
+
+	public synchronized int getWins() {
+		return wins;
+	}
+
+	public synchronized int getDraws() {
+		return draws;
+	}
+
+	public synchronized int getLosses() {
+		return losses;
+	}
+
+	public synchronized int getGames() {
+		return wins + draws + losses;
+	}
+
+	/**
+	 * Returns the average score per game
+	 * @return a value between 0 and 1
+	 */
+	public synchronized double getScore() {
+		int games = getGames();
+		return games == 0 ? 0.5 : (wins + 0.5 * draws) / games;
+	}
+
+	/**
+	 * Returns half the width of the 95% confidence interval on the score
+	 * @return the margin of error of getScore()
+	 */
+	public synchronized double getScoreMargin() {
+		int games = getGames();
+		if (games < 2) {
+			return 0.5;
+		}
+		double score = getScore();
+		double variance = (wins * (1 - score) * (1 - score) + draws * (0.5 - score) * (0.5 - score)
+				+ losses * score * score) / games;
+		return Z95 * Math.sqrt(variance / games);
+	}
+
+	/**
+	 * Converts a score between 0 and 1 to an Elo difference
+	 * @param score
+	 * @return the Elo difference
+	 */
+	public static double toElo(double score) {
+		if (score <= 0) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		if (score >= 1) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return -400 * Math.log10(1 / score - 1);
+	}
+
+	public synchronized double getElo() {
+		return toElo(getScore());
+	}
+
+	public synchronized String toString() {
+		double score = getScore();
+		double margin = getScoreMargin();
+		return String.format("games %d  +%d =%d -%d  score %.3f [%.3f, %.3f]  elo %.1f [%.1f, %.1f]",
+				getGames(), wins, draws, losses, score, score - margin, score + margin,
+				toElo(score), toElo(score - margin), toElo(score + margin));
+	}
+}
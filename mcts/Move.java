@@ -30,6 +30,10 @@ public class Move implements Serializable {
 	 * | 29|   | 30|   | 31|   | 32|   |
 	 * +---+---+---+---+---+---+---+---+
 	 * 
+	 * The notation of moves uses the standard numbering of checkers
+	 * instead, in which the side that moves first (Black, the opponent
+	 * here) starts on squares 1-12: the board is turned around, so
+	 * position p is square 33 - p in notation.
 	 */
 
 	private static final long serialVersionUID = 2L;
@@ -100,6 +104,53 @@ public class Move implements Serializable {
 		return jumpList;
 	}
 	
+	/**
+	 * Returns the move in square notation, "from-to" for simple moves
+	 * and "fromxto" for captures
+	 * @return the move in square notation
+	 */
+	public String getNotation() {
+		return square(from) + (jumpList.isEmpty() ? "-" : "x") + square(to);
+	}
+	
+	/**
+	 * Converts a board position to its square in notation, and back
+	 * @param pos a board position or a square, 1 to 32
+	 * @return the square of pos, or the position of a square
+	 */
+	public static int square(int pos) {
+		return 33 - pos;
+	}
+	
+	/**
+	 * Finds the legal move in state written as "from-to" or "fromxto",
+	 * for example "11-15" or "18x11"
+	 * @param state the state the move is played in
+	 * @param text  the move in square notation
+	 * @return the matching legal move of state
+	 * @throws IllegalArgumentException if no legal move matches the text
+	 */
+	public static Move parse(State state, String text) {
+		String[] squares = text.trim().split("[-x]");
+		if (squares.length < 2) {
+			throw new IllegalArgumentException("Bad move: " + text);
+		}
+		int from;
+		int to;
+		try {
+			from = square(Integer.parseInt(squares[0]));
+			to = square(Integer.parseInt(squares[squares.length - 1]));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad move: " + text);
+		}
+		for (Move move : state.getLegalMoves()) {
+			if (move.from == from && move.to == to) {
+				return move;
+			}
+		}
+		throw new IllegalArgumentException("Illegal move: " + text);
+	}
+	
 	public int hashCode() {
 		return to * to - from * from;
 	}
@@ -0,0 +1,502 @@
+package mcts;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads and writes games in PDN (Portable Draughts Notation), e.g.
+ *
+ *     [Black "minimax:depth=5"]
+ *     [White "mcts"]
+ *     [Result "0-1"]
+ *     1. 11-15 23-19 2. 8-11 22-17 3. 9-13 17x10 ... 0-1
+ *
+ * Moves use the standard square numbers of the notation of Move, "from-to"
+ * or "fromxto", and a multiple capture may list its intermediate squares
+ * ("15x24x31"). Start positions other than the initial state are given by
+ * a FEN tag in the form of Fen. As in standard PDN, Black moves first from
+ * the initial state, so Black is the opponent and White is the player, and
+ * results are written White's score first.
+ *
+ * Reading is lazy: games are parsed one at a time from the reader, so a
+ * file of any size is streamed in constant memory. Every move is checked
+ * against the legal moves of its position.
+ */
+public class Pdn {
+
+	private Pdn() {
+	}
+
+	/**
+	 * A game record: its tags, start state and moves
+	 */
+	public static class Game {
+		private Map<String, String> tags;
+		private State start;
+		private List<Move> moves;
+		private String result;
+
+		/**
+		 * Constructor
+		 * @param tags   the tags, in the order they are written
+		 * @param start  the state the game starts from
+		 * @param moves  the moves played from start
+		 * @param result the result, "1-0", "0-1", "1/2-1/2" or "*"
+		 */
+		public Game(Map<String, String> tags, State start, List<Move> moves, String result) {
+			this.tags = tags;
+			this.start = start;
+			this.moves = moves;
+			this.result = result;
+		}
+
+		public Map<String, String> getTags() {
+			return tags;
+		}
+
+		public State getStart() {
+			return start;
+		}
+
+		public List<Move> getMoves() {
+			return moves;
+		}
+
+		public String getResult() {
+			return result;
+		}
+
+		/**
+		 * Returns the score of the player (White) in the game
+		 * @return 1 for a win, 0.5 for a draw, 0 for a loss, or NaN if
+		 *         the game has no result
+		 */
+		public double getPlayerScore() {
+			switch (result) {
+			case "1-0":
+			case "2-0":
+				return 1;
+			case "1/2-1/2":
+			case "1-1":
+				return 0.5;
+			case "0-1":
+			case "0-2":
+				return 0;
+			default:
+				return Double.NaN;
+			}
+		}
+
+		/**
+		 * Returns the positions of the game
+		 * @return the start state followed by the state after every move
+		 */
+		public List<State> getStates() {
+			List<State> states = new ArrayList<State>(moves.size() + 1);
+			State state = start;
+			states.add(state);
+			for (Move move : moves) {
+				state = state.result(move);
+				states.add(state);
+			}
+			return states;
+		}
+	}
+
+	/**
+	 * Returns the games of a PDN file as a lazy stream, which must be
+	 * closed to close the file. Games with illegal moves or bad tags are
+	 * skipped and reported on the standard error, so that one bad game
+	 * does not end a long run over an archive.
+	 * @param path the PDN file
+	 * @return the games
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static Stream<Game> games(Path path) throws IOException {
+		return games(path, e -> System.err.println("# skipped " + path + ": " + e.getMessage()));
+	}
+
+	/**
+	 * Returns the games of a PDN file as a lazy stream, which must be
+	 * closed to close the file
+	 * @param path    the PDN file
+	 * @param skipped called with the error of every game with illegal
+	 *                moves or bad tags, which is skipped; if null, the
+	 *                error is thrown instead
+	 * @return the games
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static Stream<Game> games(Path path, Consumer<IllegalArgumentException> skipped) throws IOException {
+		BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+		return games(reader, skipped).onClose(() -> {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	/**
+	 * Returns the games read from a reader as a lazy stream. Read errors
+	 * are thrown as UncheckedIOException, and games with illegal moves or
+	 * bad tags as IllegalArgumentException.
+	 * @param reader the PDN text
+	 * @return the games
+	 */
+	public static Stream<Game> games(BufferedReader reader) {
+		return games(reader, null);
+	}
+
+	/**
+	 * Returns the games read from a reader as a lazy stream. Read errors
+	 * are thrown as UncheckedIOException.
+	 * @param reader  the PDN text
+	 * @param skipped called with the error of every game with illegal
+	 *                moves or bad tags, which is skipped; if null, the
+	 *                error is thrown instead
+	 * @return the games
+	 */
+	public static Stream<Game> games(BufferedReader reader, Consumer<IllegalArgumentException> skipped) {
+		Iterator<Game> iterator = new GameIterator(reader, skipped);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+				Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * Returns every position of the games of a PDN file as a lazy stream,
+	 * which must be closed to close the file
+	 * @param path the PDN file
+	 * @return the positions, game after game
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static Stream<State> positions(Path path) throws IOException {
+		return games(path).flatMap(game -> game.getStates().stream());
+	}
+
+	/**
+	 * Parses the games of a reader one at a time. A game is its tag
+	 * lines followed by its movetext; it ends at the next tag line after
+	 * some movetext, or at the end of the input.
+	 */
+	private static class GameIterator implements Iterator<Game> {
+		private BufferedReader reader;
+		private Consumer<IllegalArgumentException> skipped;
+		private String pending;
+		private Game next;
+		private int lineNumber;
+		private boolean done;
+
+		GameIterator(BufferedReader reader, Consumer<IllegalArgumentException> skipped) {
+			this.reader = reader;
+			this.skipped = skipped;
+		}
+
+		public boolean hasNext() {
+			while (next == null && !done) {
+				try {
+					next = readGame();
+					done = next == null;
+				} catch (IllegalArgumentException e) {
+					if (skipped == null) {
+						throw e;
+					}
+					skipped.accept(e);
+				}
+			}
+			return next != null;
+		}
+
+		public Game next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Game game = next;
+			next = null;
+			return game;
+		}
+
+		private String readLine() {
+			if (pending != null) {
+				String line = pending;
+				pending = null;
+				return line;
+			}
+			try {
+				String line = reader.readLine();
+				if (line != null) {
+					lineNumber++;
+				}
+				return line;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private Game readGame() {
+			List<String> tagLines = new ArrayList<String>();
+			StringBuilder movetext = new StringBuilder();
+			int firstLine = 0;
+			String line;
+			while ((line = readLine()) != null) {
+				String trimmed = line.trim();
+				if (trimmed.isEmpty() || trimmed.startsWith("%")) {
+					continue;
+				}
+				if (firstLine == 0) {
+					firstLine = lineNumber;
+				}
+				if (trimmed.startsWith("[")) {
+					if (movetext.length() > 0) {
+						pending = line;
+						break;
+					}
+					tagLines.add(trimmed);
+				}
+				else {
+					movetext.append(trimmed).append('\n');
+				}
+			}
+			if (tagLines.isEmpty() && movetext.length() == 0) {
+				return null;
+			}
+			try {
+				Map<String, String> tags = new LinkedHashMap<String, String>();
+				for (String tag : tagLines) {
+					parseTag(tag, tags);
+				}
+				return parseGame(tags, movetext);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Game at line " + firstLine + ": " + e.getMessage(), e);
+			}
+		}
+	}
+
+	private static void parseTag(String line, Map<String, String> tags) {
+		int quote = line.indexOf('"');
+		int end = line.lastIndexOf('"');
+		if (quote < 0 || end <= quote || !line.endsWith("]")) {
+			throw new IllegalArgumentException("Bad tag: " + line);
+		}
+		tags.put(line.substring(1, quote).trim(), line.substring(quote + 1, end));
+	}
+
+	private static Game parseGame(Map<String, String> tags, CharSequence movetext) {
+		String fen = tags.get("FEN");
+		State state = fen == null ? MatchRunner.initialState() : Fen.parse(fen);
+		State start = state;
+		List<Move> moves = new ArrayList<Move>();
+		String result = tags.getOrDefault("Result", "*");
+		for (String token : tokens(movetext)) {
+			if (isResult(token)) {
+				result = token;
+				continue;
+			}
+			if (token.startsWith("$")) { // numeric annotation glyph
+				continue;
+			}
+			String move = token.replaceFirst("^\\d+\\.+", "").replaceAll("[!?]+$", "");
+			if (move.isEmpty()) {
+				continue;
+			}
+			Move legal = parseMove(state, move);
+			moves.add(legal);
+			state = state.result(legal);
+		}
+		return new Game(tags, start, moves, result);
+	}
+
+	/**
+	 * Finds the legal move written as "a-b", "axb" or "axbxc...", using the
+	 * intermediate squares of a multiple capture to choose between
+	 * captures with the same start and end
+	 */
+	private static Move parseMove(State state, String text) {
+		if (state.isTerminalState()) {
+			throw new IllegalArgumentException("Move after the end of the game: " + text);
+		}
+		Move move = Move.parse(state, text);
+		String[] squares = text.split("[-x]");
+		if (squares.length <= 2) {
+			return move;
+		}
+		for (Move candidate : state.getLegalMoves()) {
+			if (candidate.equals(move) && landsOn(state, candidate, squares)) {
+				return candidate;
+			}
+		}
+		return move;
+	}
+
+	/**
+	 * Returns true if the intermediate squares of a capture sequence are
+	 * the squares the piece lands on between its jumps
+	 */
+	private static boolean landsOn(State state, Move move, String[] squares) {
+		if (move.getNumJumps() != squares.length - 1) {
+			return false;
+		}
+		int pos = move.getFrom();
+		for (int i = 0; i < move.getNumJumps(); i++) {
+			int jumped = move.getJumps().get(i);
+			int row = 2 * State.posToRow(jumped) - State.posToRow(pos);
+			int col = 2 * State.posToCol(jumped) - State.posToCol(pos);
+			pos = State.RCToPos(row, col);
+			if (!String.valueOf(Move.square(pos)).equals(squares[i + 1].trim())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isResult(String token) {
+		return token.equals("1-0") || token.equals("0-1") || token.equals("1/2-1/2") || token.equals("*")
+				|| token.equals("2-0") || token.equals("0-2") || token.equals("1-1");
+	}
+
+	/**
+	 * Splits movetext into tokens, dropping comments and variations
+	 */
+	private static List<String> tokens(CharSequence text) {
+		List<String> tokens = new ArrayList<String>();
+		StringBuilder token = new StringBuilder();
+		int variation = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '{') {
+				int end = indexOf(text, '}', i);
+				i = end < 0 ? text.length() : end;
+				c = ' ';
+			}
+			else if (c == ';') { // comment to the end of the line
+				int end = indexOf(text, '\n', i);
+				i = end < 0 ? text.length() : end;
+				c = ' ';
+			}
+			if (c == '(' || c == ')' || Character.isWhitespace(c)) {
+				if (token.length() > 0 && variation == 0) {
+					tokens.add(token.toString());
+				}
+				token.setLength(0);
+				if (c == '(') {
+					variation++;
+				}
+				else if (c == ')') {
+					variation = Math.max(0, variation - 1);
+				}
+			}
+			else {
+				token.append(c);
+			}
+		}
+		if (token.length() > 0 && variation == 0) {
+			tokens.add(token.toString());
+		}
+		return tokens;
+	}
+
+	private static int indexOf(CharSequence text, char c, int from) {
+		for (int i = from; i < text.length(); i++) {
+			if (text.charAt(i) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the PDN result of the last state of a game
+	 * @param state the last state
+	 * @return "1-0" if White (the player) won, "0-1" if Black (the
+	 *         opponent) won, "1/2-1/2" for a draw and "*" if the game is
+	 *         not over
+	 */
+	public static String result(State state) {
+		if (!state.isTerminalState()) {
+			return "*";
+		}
+		return result(state.playerWins() ? 1 : state.opponentWins() ? 0 : 0.5);
+	}
+
+	/**
+	 * Returns the PDN result of a score
+	 * @param playerScore the score of the player (White) between 0 and 1
+	 * @return "1-0" for a win of the player, "0-1" for a loss and
+	 *         "1/2-1/2" otherwise
+	 */
+	public static String result(double playerScore) {
+		return playerScore > 0.75 ? "1-0" : playerScore < 0.25 ? "0-1" : "1/2-1/2";
+	}
+
+	/**
+	 * Writes a game. The Result tag is added from the result if the
+	 * tags do not have one, and a FEN tag if the game does not start
+	 * from the initial state.
+	 * @param out  where the game is written
+	 * @param game the game
+	 * @throws IOException
+	 */
+	public static void write(Writer out, Game game) throws IOException {
+		Map<String, String> tags = new LinkedHashMap<String, String>(game.getTags());
+		tags.putIfAbsent("Result", game.getResult());
+		if (game.getStart().getHash() != MatchRunner.initialState().getHash()) {
+			tags.putIfAbsent("FEN", Fen.toFen(game.getStart()));
+		}
+		for (Map.Entry<String, String> tag : tags.entrySet()) {
+			out.write("[" + tag.getKey() + " \"" + tag.getValue().replace("\"", "'") + "\"]\n");
+		}
+		StringBuilder line = new StringBuilder();
+		State state = game.getStart();
+		int number = 1;
+		boolean firstMove = true;
+		for (Move move : game.getMoves()) {
+			String text;
+			if (!state.isPlayersTurn()) {
+				text = number + ". " + move.getNotation();
+			}
+			else if (firstMove) {
+				text = number + "... " + move.getNotation();
+			}
+			else {
+				text = move.getNotation();
+			}
+			if (state.isPlayersTurn()) {
+				number++;
+			}
+			appendWrapped(out, line, text);
+			state = state.result(move);
+			firstMove = false;
+		}
+		appendWrapped(out, line, game.getResult());
+		out.write(line.toString());
+		out.write("\n\n");
+	}
+
+	private static void appendWrapped(Writer out, StringBuilder line, String text) throws IOException {
+		if (line.length() > 0 && line.length() + 1 + text.length() > 79) {
+			out.write(line.toString());
+			out.write('\n');
+			line.setLength(0);
+		}
+		if (line.length() > 0) {
+			line.append(' ');
+		}
+		line.append(text);
+	}
+}
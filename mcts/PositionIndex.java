@@ -0,0 +1,551 @@
+package mcts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Stream;
+
+/**
+ * Index of the moves played from every position of a game collection,
+ * e.g. for opening preparation: which moves were played in this position
+ * and how did they score?
+ *
+ * The index is a file of fixed-size entries sorted by the symmetric hash
+ * of the position, one entry per position and move, with the wins, draws
+ * and losses of the side that played the move. A position and its
+ * colour-swapped mirror (see Symmetry) share their entries, which hold the
+ * moves of the canonical form. Queries map the file and binary search it,
+ * so a lookup touches a few pages of the file and nothing of the archive
+ * is loaded onto the heap.
+ *
+ * The file is built with an external sort, so building needs memory for
+ * one run of entries only: the positions are sorted and merged in runs of
+ * runSize entries, written next to the index, then merged into the index.
+ *
+ * Usage: PositionIndex --build games.pdn --index games.idx [--run-size 1000000]
+ *        PositionIndex --index games.idx [--fen FEN | --moves "11-15 23-19"]
+ */
+public class PositionIndex implements Closeable {
+
+	private static final int MAGIC = 0x434B4958; // "CKIX"
+	private static final int VERSION = 2;
+	private static final int HEADER_BYTES = 16;
+
+	// Hash, move, wins, draws and losses
+	public static final int ENTRY_BYTES = 8 + StateCodec.MOVE_BYTES + 12;
+
+	// Entries of a mapped segment, which cannot be larger than 2 GB
+	private static final long SEGMENT_ENTRIES = Integer.MAX_VALUE / ENTRY_BYTES;
+
+	// Results of an occurrence, from the point of view of the side that moved
+	private static final int WIN = 0;
+	private static final int DRAW = 1;
+	private static final int LOSS = 2;
+
+	private MappedByteBuffer[] segments;
+	private long size;
+
+	/**
+	 * The games in which a move was played from a position
+	 */
+	public static class MoveStats {
+		private Move move;
+		private int wins;
+		private int draws;
+		private int losses;
+
+		public MoveStats(Move move, int wins, int draws, int losses) {
+			this.move = move;
+			this.wins = wins;
+			this.draws = draws;
+			this.losses = losses;
+		}
+
+		public Move getMove() {
+			return move;
+		}
+
+		public int getWins() {
+			return wins;
+		}
+
+		public int getDraws() {
+			return draws;
+		}
+
+		public int getLosses() {
+			return losses;
+		}
+
+		public int getGames() {
+			return wins + draws + losses;
+		}
+
+		/**
+		 * Returns the score of the move for the side that played it
+		 * @return the wins plus half the draws over the games
+		 */
+		public double getScore() {
+			return (wins + draws / 2.0) / getGames();
+		}
+
+		public String toString() {
+			return String.format("%s games %d +%d =%d -%d score %.3f", move.getNotation(), getGames(), wins,
+					draws, losses, getScore());
+		}
+	}
+
+	private PositionIndex(MappedByteBuffer[] segments, long size) {
+		this.segments = segments;
+		this.size = size;
+	}
+
+	/**
+	 * Opens an index built by build
+	 * @param path the index file
+	 * @return the index, mapped read-only
+	 * @throws IOException if the file cannot be read or is not an index
+	 */
+	public static PositionIndex open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+			}
+			header.flip();
+			if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Not a position index: " + path);
+			}
+			long size = header.getLong();
+			if (channel.size() != HEADER_BYTES + size * ENTRY_BYTES) {
+				throw new IOException("Truncated position index: " + path);
+			}
+			MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_ENTRIES - 1) / SEGMENT_ENTRIES)];
+			for (int i = 0; i < segments.length; i++) {
+				long first = i * SEGMENT_ENTRIES;
+				long entries = Math.min(SEGMENT_ENTRIES, size - first);
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * ENTRY_BYTES,
+						entries * ENTRY_BYTES);
+			}
+			return new PositionIndex(segments, size);
+		}
+	}
+
+	/**
+	 * Returns the number of entries, that is of distinct positions and moves
+	 * @return the number of entries
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Returns the moves played from a state, most played first
+	 * @param state
+	 * @return the moves with their results, empty if the state is not in the index
+	 */
+	public List<MoveStats> lookup(State state) {
+		long hash = state.getSymmetricHash();
+		List<MoveStats> moves = new ArrayList<MoveStats>();
+		for (long i = lowerBound(hash); i < size && hashAt(i) == hash; i++) {
+			ByteBuffer entry = entry(i);
+			entry.position(entry.position() + 8);
+			Move move = legalMove(state, Symmetry.canonical(state, StateCodec.readMove(entry)));
+			if (move == null) {
+				continue; // a hash collision with another position
+			}
+			moves.add(new MoveStats(move, entry.getInt(), entry.getInt(), entry.getInt()));
+		}
+		moves.sort((a, b) -> Integer.compare(b.getGames(), a.getGames()));
+		return moves;
+	}
+
+	/**
+	 * Returns the legal move of a state with the squares and captures of
+	 * a move, or null if there is none
+	 */
+	private static Move legalMove(State state, Move move) {
+		for (Move legal : state.getLegalMoves()) {
+			if (legal.equals(move) && legal.getNumJumps() == move.getNumJumps()
+					&& legal.getJumps().containsAll(move.getJumps())) {
+				return legal;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the first entry whose hash is not smaller than hash
+	 */
+	private long lowerBound(long hash) {
+		long low = 0;
+		long high = size;
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			if (hashAt(mid) < hash) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private long hashAt(long i) {
+		return segments[(int) (i / SEGMENT_ENTRIES)].getLong((int) (i % SEGMENT_ENTRIES) * ENTRY_BYTES);
+	}
+
+	/**
+	 * Returns a view of the mapped file positioned at entry i
+	 */
+	private ByteBuffer entry(long i) {
+		ByteBuffer entry = segments[(int) (i / SEGMENT_ENTRIES)].duplicate();
+		entry.position((int) (i % SEGMENT_ENTRIES) * ENTRY_BYTES);
+		return entry;
+	}
+
+	/**
+	 * Drops the mappings. The memory is unmapped when they are collected.
+	 */
+	public void close() {
+		segments = new MappedByteBuffer[0];
+		size = 0;
+	}
+
+	/**
+	 * Builds an index of the positions of the games of a PDN file. Games
+	 * without a result are skipped.
+	 * @param pdn     the games
+	 * @param index   the index file to write
+	 * @param runSize the number of entries sorted in memory at a time
+	 * @return the number of entries of the index
+	 * @throws IOException
+	 */
+	public static long build(Path pdn, Path index, int runSize) throws IOException {
+		List<Path> runs = new ArrayList<Path>();
+		try {
+			Run run = new Run(runSize);
+			try (Stream<Pdn.Game> games = Pdn.games(pdn)) {
+				for (Pdn.Game game : (Iterable<Pdn.Game>) games::iterator) {
+					double playerScore = game.getPlayerScore();
+					if (Double.isNaN(playerScore)) {
+						continue;
+					}
+					State state = game.getStart();
+					for (Move move : game.getMoves()) {
+						double score = state.isPlayersTurn() ? playerScore : 1 - playerScore;
+						run.add(state.getSymmetricHash(), Symmetry.canonical(state, move),
+								score == 1 ? WIN : score == 0 ? LOSS : DRAW);
+						if (run.isFull()) {
+							runs.add(run.write(index));
+						}
+						state = state.result(move);
+					}
+				}
+			}
+			if (run.size > 0 || runs.isEmpty()) {
+				runs.add(run.write(index));
+			}
+			return merge(runs, index);
+		} finally {
+			for (Path path : runs) {
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+
+	/**
+	 * Occurrences of positions and moves, sorted in memory and written as
+	 * a run file of entries
+	 */
+	private static class Run {
+		long[] hashes;
+		// The 44-bit move code of StateCodec shifted left by 2, or'ed with the result
+		long[] keys;
+		int size;
+		ByteBuffer move = ByteBuffer.allocate(StateCodec.MOVE_BYTES);
+
+		Run(int capacity) {
+			hashes = new long[capacity];
+			keys = new long[capacity];
+		}
+
+		void add(long hash, Move played, int result) {
+			move.clear();
+			StateCodec.writeMove(move, played);
+			move.flip();
+			long code = ((long) (move.getShort() & 0xFFFF) << 32) | (move.getInt() & 0xFFFFFFFFL);
+			hashes[size] = hash;
+			keys[size] = (code << 2) | result;
+			size++;
+		}
+
+		boolean isFull() {
+			return size == hashes.length;
+		}
+
+		/**
+		 * Sorts the occurrences, writes them with their results summed
+		 * and empties the run
+		 */
+		Path write(Path index) throws IOException {
+			sort(hashes, keys, 0, size - 1);
+			Path path = Files.createTempFile(index.toAbsolutePath().getParent(), "run", ".tmp");
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+				int[] counts = new int[3];
+				for (int i = 0; i < size; i++) {
+					counts[(int) (keys[i] & 3)]++;
+					if (i + 1 == size || hashes[i + 1] != hashes[i] || keys[i + 1] >>> 2 != keys[i] >>> 2) {
+						writeEntry(out, new Entry(hashes[i], keys[i] >>> 2, counts[WIN], counts[DRAW], counts[LOSS]));
+						counts = new int[3];
+					}
+				}
+			}
+			size = 0;
+			return path;
+		}
+	}
+
+	/**
+	 * An entry of a run or of the index
+	 */
+	private static class Entry implements Comparable<Entry> {
+		long hash;
+		long move;
+		int wins;
+		int draws;
+		int losses;
+
+		Entry(long hash, long move, int wins, int draws, int losses) {
+			this.hash = hash;
+			this.move = move;
+			this.wins = wins;
+			this.draws = draws;
+			this.losses = losses;
+		}
+
+		public int compareTo(Entry other) {
+			int c = Long.compare(hash, other.hash);
+			return c != 0 ? c : Long.compare(move, other.move);
+		}
+	}
+
+	private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+		out.writeLong(entry.hash);
+		out.writeShort((int) (entry.move >>> 32));
+		out.writeInt((int) entry.move);
+		out.writeInt(entry.wins);
+		out.writeInt(entry.draws);
+		out.writeInt(entry.losses);
+	}
+
+	private static Entry readEntry(DataInputStream in) throws IOException {
+		long hash;
+		try {
+			hash = in.readLong();
+		} catch (EOFException e) {
+			return null;
+		}
+		long move = ((long) (in.readShort() & 0xFFFF) << 32) | (in.readInt() & 0xFFFFFFFFL);
+		return new Entry(hash, move, in.readInt(), in.readInt(), in.readInt());
+	}
+
+	/**
+	 * A run being merged and its next entry
+	 */
+	private static class RunReader implements Comparable<RunReader> {
+		DataInputStream in;
+		Entry next;
+
+		RunReader(Path path) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+			next = readEntry(in);
+		}
+
+		public int compareTo(RunReader other) {
+			return next.compareTo(other.next);
+		}
+	}
+
+	/**
+	 * Merges sorted runs into the index, adding up the entries of the same
+	 * position and move
+	 */
+	private static long merge(List<Path> runs, Path index) throws IOException {
+		PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>();
+		long size = 0;
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(index), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(0); // the size, written at the end
+			for (Path run : runs) {
+				RunReader reader = new RunReader(run);
+				if (reader.next != null) {
+					queue.add(reader);
+				}
+				else {
+					reader.in.close();
+				}
+			}
+			Entry current = null;
+			while (!queue.isEmpty()) {
+				RunReader reader = queue.poll();
+				Entry entry = reader.next;
+				if (current != null && current.compareTo(entry) == 0) {
+					current.wins += entry.wins;
+					current.draws += entry.draws;
+					current.losses += entry.losses;
+				}
+				else {
+					if (current != null) {
+						writeEntry(out, current);
+						size++;
+					}
+					current = entry;
+				}
+				reader.next = readEntry(reader.in);
+				if (reader.next != null) {
+					queue.add(reader);
+				}
+				else {
+					reader.in.close();
+				}
+			}
+			if (current != null) {
+				writeEntry(out, current);
+				size++;
+			}
+		} finally {
+			for (RunReader reader : queue) {
+				reader.in.close();
+			}
+		}
+		try (FileChannel channel = FileChannel.open(index, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(8);
+			buffer.putLong(size).flip();
+			channel.write(buffer, 8);
+		}
+		return size;
+	}
+
+	/**
+	 * Sorts two parallel arrays by the first and then the second
+	 */
+	private static void sort(long[] a, long[] b, int low, int high) {
+		while (high - low > 16) {
+			int mid = (low + high) >>> 1;
+			long pivotA = a[mid];
+			long pivotB = b[mid];
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (compare(a[i], b[i], pivotA, pivotB) < 0) {
+					i++;
+				}
+				while (compare(a[j], b[j], pivotA, pivotB) > 0) {
+					j--;
+				}
+				if (i <= j) {
+					swap(a, b, i++, j--);
+				}
+			}
+			// Recurse into the smaller part and loop on the larger one
+			if (j - low < high - i) {
+				sort(a, b, low, j);
+				low = i;
+			}
+			else {
+				sort(a, b, i, high);
+				high = j;
+			}
+		}
+		for (int i = low + 1; i <= high; i++) {
+			for (int j = i; j > low && compare(a[j - 1], b[j - 1], a[j], b[j]) > 0; j--) {
+				swap(a, b, j - 1, j);
+			}
+		}
+	}
+
+	private static int compare(long a1, long b1, long a2, long b2) {
+		int c = Long.compare(a1, a2);
+		return c != 0 ? c : Long.compare(b1, b2);
+	}
+
+	private static void swap(long[] a, long[] b, int i, int j) {
+		long t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+		t = b[i];
+		b[i] = b[j];
+		b[j] = t;
+	}
+
+	public static void main(String[] args) throws IOException {
+		Path build = null;
+		Path index = null;
+		int runSize = 1000000;
+		State state = MatchRunner.initialState();
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value for " + args[i]);
+			}
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "--build":
+				build = Paths.get(value);
+				break;
+			case "--index":
+				index = Paths.get(value);
+				break;
+			case "--run-size":
+				runSize = Integer.parseInt(value);
+				break;
+			case "--fen":
+				state = Fen.parse(value);
+				break;
+			case "--moves":
+				state = MatchRunner.initialState();
+				for (String move : value.trim().split("\\s+")) {
+					state = state.result(Move.parse(state, move));
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+		if (index == null) {
+			throw new IllegalArgumentException("Missing --index");
+		}
+		if (build != null) {
+			long start = System.currentTimeMillis();
+			long size = build(build, index, runSize);
+			System.out.println("# entries " + size + " time " + (System.currentTimeMillis() - start) + " ms");
+			return;
+		}
+		try (PositionIndex positions = open(index)) {
+			long start = System.nanoTime();
+			List<MoveStats> moves = positions.lookup(state);
+			long micros = (System.nanoTime() - start) / 1000;
+			System.out.println("# " + Fen.toFen(state) + " entries " + positions.size() + " lookup " + micros + " us");
+			for (MoveStats move : moves) {
+				System.out.println(move);
+			}
+		}
+	}
+}
@@ -0,0 +1,423 @@
+package mcts;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Proof-number search, to prove the outcome of a position instead of
+ * estimating it. A search tries to prove that one side (the attacker) wins:
+ * the attacker's nodes are OR nodes and the defender's AND nodes, and
+ * every node has the number of leaves that must still be proven (its
+ * proof number) or disproven (its disproof number) to settle it. The
+ * search keeps expanding the most-proving leaf until the root is settled
+ * or the tree reaches maxNodes nodes, which bounds its memory.
+ *
+ * solve runs a search for each side: a proven win for the side to move is
+ * a WIN, for the other side a LOSS, and if neither side can force a win
+ * the position is a DRAW.
+ *
+ * Nodes keep only their move and hashes and states are replayed from the
+ * root, so a node costs a few dozen bytes. Settled positions are shared
+ * between the branches and searches through a cache keyed by the
+ * symmetric hash and whether the attacker is to move, so a position and
+ * its colour-swapped mirror share their entry.
+ * A position that repeats one of its ancestors is a disproof for the
+ * attacker, since endless play wins nothing; such disproofs depend on the
+ * path and are not cached.
+ */
+public class ProofNumberSearch {
+
+	/**
+	 * The outcome of a position for the side to move
+	 */
+	public enum Outcome {
+		WIN, LOSS, DRAW, UNKNOWN
+	}
+
+	private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+	// Longest proving line returned, in case cached depths of different searches disagree
+	private static final int MAX_LINE = 1000;
+
+	// Cached values: the plies to the end of the proof shifted left by 2, or'ed with a status
+	private static final long PROVEN = 1;
+	private static final long DISPROVEN = 2;
+
+	// Mixed into the keys of the cache for positions with the attacker to move
+	private static final long ATTACKER_TO_MOVE = 0x2545F4914F6CDD1DL;
+
+	private int maxNodes = 1000000;
+	private long millis;
+	private EvalCache cache = new EvalCache(18, 4);
+
+	private long nodes;
+	private long deadline;
+
+	/**
+	 * The result of solve
+	 */
+	public static class Result {
+		private Outcome outcome;
+		private List<Move> line;
+		private long nodes;
+		private long millis;
+
+		public Result(Outcome outcome, List<Move> line, long nodes, long millis) {
+			this.outcome = outcome;
+			this.line = line;
+			this.nodes = nodes;
+			this.millis = millis;
+		}
+
+		public Outcome getOutcome() {
+			return outcome;
+		}
+
+		/**
+		 * Returns the proving line of a WIN or LOSS: the winner's fastest
+		 * proven moves against the loser's longest defence. It ends at the
+		 * end of the game unless the cache lost part of the proof.
+		 * @return the moves, empty for a DRAW or UNKNOWN
+		 */
+		public List<Move> getLine() {
+			return line;
+		}
+
+		public long getNodes() {
+			return nodes;
+		}
+
+		public long getMillis() {
+			return millis;
+		}
+
+		public String toString() {
+			StringBuilder builder = new StringBuilder(outcome.toString().toLowerCase());
+			if (!line.isEmpty()) {
+				builder.append(" in ").append(line.size());
+			}
+			builder.append(" nodes ").append(nodes).append(" time ").append(millis);
+			if (!line.isEmpty()) {
+				builder.append(" line");
+				for (Move move : line) {
+					builder.append(' ').append(move.getNotation());
+				}
+			}
+			return builder.toString();
+		}
+	}
+
+	/**
+	 * A node of the proof tree
+	 */
+	private static class Node {
+		Move move;
+		long hash;
+		// The symmetric hash, for the cache
+		long key;
+		Node parent;
+		Node[] children;
+		// True if the attacker is to move
+		boolean or;
+		int proof;
+		int disproof;
+		// Plies to the end of the proof, for proven nodes
+		int depth;
+		// True if the disproof depends on a repetition of the path
+		boolean cycle;
+
+		Node(Move move, long hash, long key, Node parent, boolean or) {
+			this.move = move;
+			this.hash = hash;
+			this.key = key;
+			this.parent = parent;
+			this.or = or;
+		}
+	}
+
+	/**
+	 * Solves a state within the node and time limits
+	 * @param state the state to solve
+	 * @return the outcome for the side to move and its proving line
+	 */
+	public Result solve(State state) {
+		long start = System.currentTimeMillis();
+		nodes = 0;
+		deadline = millis > 0 ? start + millis : 0;
+		if (state.isTerminalState()) {
+			Outcome outcome = state.playerWins() ? Outcome.WIN : state.opponentWins() ? Outcome.LOSS : Outcome.DRAW;
+			if (!state.isPlayersTurn() && outcome != Outcome.DRAW) {
+				outcome = outcome == Outcome.WIN ? Outcome.LOSS : Outcome.WIN;
+			}
+			return new Result(outcome, new ArrayList<Move>(), 0, 0);
+		}
+		boolean mover = state.isPlayersTurn();
+		Node win = prove(state, mover);
+		if (win.proof == 0) {
+			return new Result(Outcome.WIN, line(win, state, mover), nodes, System.currentTimeMillis() - start);
+		}
+		Node loss = prove(state, !mover);
+		Outcome outcome;
+		List<Move> line = new ArrayList<Move>();
+		if (loss.proof == 0) {
+			outcome = Outcome.LOSS;
+			line = line(loss, state, !mover);
+		}
+		else if (win.disproof == 0 && loss.disproof == 0) {
+			outcome = Outcome.DRAW;
+		}
+		else {
+			outcome = Outcome.UNKNOWN;
+		}
+		return new Result(outcome, line, nodes, System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Searches until the root is proven or disproven, or a limit is reached
+	 * @param state           the root state
+	 * @param playerAttacks   true to prove a win of the player, false of the opponent
+	 * @return the root of the tree
+	 */
+	private Node prove(State state, boolean playerAttacks) {
+		Node root = new Node(null, state.getHash(), state.getSymmetricHash(), null,
+				state.isPlayersTurn() == playerAttacks);
+		root.proof = 1;
+		root.disproof = 1;
+		long limit = nodes + maxNodes;
+		while (root.proof != 0 && root.disproof != 0 && nodes < limit
+				&& (deadline == 0 || System.currentTimeMillis() < deadline)
+				&& !Thread.currentThread().isInterrupted()) {
+			Node node = root;
+			State current = state;
+			while (node.children != null) {
+				node = mostProving(node);
+				current = current.result(node.move);
+			}
+			expand(node, current, playerAttacks);
+			update(node);
+		}
+		return root;
+	}
+
+	/**
+	 * Returns the child of an expanded node that leads to the most-proving
+	 * leaf: the child with the smallest proof number of an OR node, or the
+	 * smallest disproof number of an AND node
+	 */
+	private static Node mostProving(Node node) {
+		Node best = node.children[0];
+		for (Node child : node.children) {
+			if (node.or ? child.proof < best.proof : child.disproof < best.disproof) {
+				best = child;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Creates the children of a leaf and sets their proof and disproof numbers
+	 */
+	private void expand(Node node, State state, boolean playerAttacks) {
+		ArrayList<Move> moves = state.getLegalMoves();
+		node.children = new Node[moves.size()];
+		for (int i = 0; i < moves.size(); i++) {
+			Move move = moves.get(i);
+			State child = state.result(move);
+			Node childNode = new Node(move, child.getHash(), child.getSymmetricHash(), node,
+					child.isPlayersTurn() == playerAttacks);
+			node.children[i] = childNode;
+			nodes++;
+			if (child.isTerminalState()) {
+				boolean attackerWins = playerAttacks ? child.playerWins() : child.opponentWins();
+				setSolved(childNode, attackerWins, 0);
+				continue;
+			}
+			if (repeats(childNode)) {
+				setSolved(childNode, false, 0);
+				childNode.cycle = true;
+				continue;
+			}
+			long cached = cache.get(key(childNode), 0);
+			if (cached != 0) {
+				setSolved(childNode, (cached & 3) == PROVEN, (int) (cached >>> 2));
+				continue;
+			}
+			// A node with many moves is harder to prove for the side that chooses
+			int count = child.getLegalMoves().size();
+			childNode.proof = childNode.or ? 1 : count;
+			childNode.disproof = childNode.or ? count : 1;
+		}
+	}
+
+	private static void setSolved(Node node, boolean proven, int depth) {
+		node.proof = proven ? 0 : INFINITY;
+		node.disproof = proven ? INFINITY : 0;
+		node.depth = depth;
+	}
+
+	/**
+	 * Returns true if a node's position is also one of its ancestors'
+	 */
+	private static boolean repeats(Node node) {
+		for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+			if (ancestor.hash == node.hash) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Recomputes the numbers of a node and its ancestors from their
+	 * children, caching the nodes that become settled
+	 */
+	private void update(Node node) {
+		while (node != null) {
+			int proof = node.proof;
+			int disproof = node.disproof;
+			int sum = 0;
+			int min = INFINITY;
+			int depth = node.or ? INFINITY : 0;
+			boolean cycle = false;
+			for (Node child : node.children) {
+				int summed = node.or ? child.disproof : child.proof;
+				int minimized = node.or ? child.proof : child.disproof;
+				sum = Math.min(INFINITY, sum + summed);
+				min = Math.min(min, minimized);
+				if (child.proof == 0) {
+					depth = node.or ? Math.min(depth, child.depth + 1) : Math.max(depth, child.depth + 1);
+				}
+				cycle |= child.cycle;
+			}
+			node.proof = node.or ? min : sum;
+			node.disproof = node.or ? sum : min;
+			node.depth = depth;
+			node.cycle = cycle;
+			if (node.proof == 0 || (node.disproof == 0 && !cycle)) {
+				cache.put(key(node), ((long) depth << 2) | (node.proof == 0 ? PROVEN : DISPROVEN));
+			}
+			if (node.proof == proof && node.disproof == disproof) {
+				break; // the ancestors do not change either
+			}
+			node = node.parent;
+		}
+	}
+
+	private static long key(Node node) {
+		return key(node.key, node.or);
+	}
+
+	private static long key(long symmetricHash, boolean attackerToMove) {
+		return attackerToMove ? symmetricHash ^ ATTACKER_TO_MOVE : symmetricHash;
+	}
+
+	/**
+	 * Returns the proving line of a proven tree: the attacker's proven
+	 * move with the shortest proof and the defender's move with the
+	 * longest, continuing through the cache below the leaves of the tree
+	 */
+	private List<Move> line(Node root, State state, boolean playerAttacks) {
+		List<Move> line = new ArrayList<Move>();
+		Node node = root;
+		while (!state.isTerminalState() && line.size() < MAX_LINE) {
+			Move best = null;
+			int bestDepth = 0;
+			Node bestNode = null;
+			ArrayList<Move> moves = state.getLegalMoves();
+			for (int i = 0; i < moves.size(); i++) {
+				int depth;
+				Node child = node == null || node.children == null ? null : node.children[i];
+				if (child != null) {
+					if (child.proof != 0) {
+						continue;
+					}
+					depth = child.depth;
+				}
+				else {
+					State next = state.result(moves.get(i));
+					long cached = next.isTerminalState() ? PROVEN : cache.get(
+							key(next.getSymmetricHash(), next.isPlayersTurn() == playerAttacks), 0);
+					if ((cached & 3) != PROVEN) {
+						continue;
+					}
+					depth = (int) (cached >>> 2);
+				}
+				boolean attacker = state.isPlayersTurn() == playerAttacks;
+				if (best == null || (attacker ? depth < bestDepth : depth > bestDepth)) {
+					best = moves.get(i);
+					bestDepth = depth;
+					bestNode = child;
+				}
+			}
+			if (best == null) {
+				break; // the cache lost the rest of the proof
+			}
+			line.add(best);
+			state = state.result(best);
+			node = bestNode;
+		}
+		return line;
+	}
+
+	/**
+	 * Clears the cache of settled positions
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * Sets the memory bound of each of the two searches of solve
+	 * @param maxNodes the maximum number of nodes of a proof tree
+	 */
+	public void setMaxNodes(int maxNodes) {
+		this.maxNodes = maxNodes;
+	}
+
+	/**
+	 * Sets the time limit of solve
+	 * @param millis the time limit in milliseconds, or 0 for none
+	 */
+	public void setMillis(long millis) {
+		this.millis = millis;
+	}
+
+	/**
+	 * Returns the number of pieces on the board of a state, to decide
+	 * whether it is worth solving
+	 * @param state
+	 * @return the number of men and kings of both sides
+	 */
+	public static int countPieces(State state) {
+		int count = 0;
+		for (int pieces : state.getNumPieces().values()) {
+			count += pieces;
+		}
+		return count;
+	}
+
+	public static void main(String[] args) {
+		ProofNumberSearch solver = new ProofNumberSearch();
+		State state = MatchRunner.initialState();
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value for " + args[i]);
+			}
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "--fen":
+				state = Fen.parse(value);
+				break;
+			case "--nodes":
+				solver.setMaxNodes(Integer.parseInt(value));
+				break;
+			case "--movetime":
+				solver.setMillis(Long.parseLong(value));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+		System.out.println(Fen.toFen(state) + " " + solver.solve(state));
+	}
+}
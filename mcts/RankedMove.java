@@ -0,0 +1,69 @@
+package mcts;
+
+import java.util.List;
+
+/**
+ * One line of a multi-PV analysis: a move of the searched state with its
+ * value and the line that follows it. Values are from the point of view
+ * of the side to move, like those of SearchResult.
+ */
+public class RankedMove {
+
+	private Move move;
+
+	// Minimax score of the move (minimax only, 0 otherwise)
+	private int score;
+
+	// Expected outcome of the move between 0 and 1 (MCTS only, NaN otherwise)
+	private double winRate;
+
+	// Number of MCTS iterations through the move (MCTS only, 0 otherwise)
+	private long visits;
+
+	// Half width of the 95% confidence interval of winRate (MCTS only, NaN otherwise)
+	private double confidence;
+
+	private List<Move> pv;
+
+	/**
+	 * Constructor
+	 * @param move       the move
+	 * @param score      the minimax score, or 0
+	 * @param winRate    the MCTS value, or NaN
+	 * @param visits     the MCTS visit count, or 0
+	 * @param confidence the half width of the confidence interval of winRate, or NaN
+	 * @param pv         the line, starting with move
+	 */
+	public RankedMove(Move move, int score, double winRate, long visits, double confidence, List<Move> pv) {
+		this.move = move;
+		this.score = score;
+		this.winRate = winRate;
+		this.visits = visits;
+		this.confidence = confidence;
+		this.pv = pv;
+	}
+
+	public Move getMove() {
+		return move;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	public double getWinRate() {
+		return winRate;
+	}
+
+	public long getVisits() {
+		return visits;
+	}
+
+	public double getConfidence() {
+		return confidence;
+	}
+
+	public List<Move> getPv() {
+		return pv;
+	}
+}
@@ -0,0 +1,223 @@
+package mcts;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of the engines: one event per search, one
+ * per iteration of iterative deepening, and a SlowMove event when a search
+ * takes longer than its budget. The budget is the time limit of the search
+ * or, for searches without one, the checkers.slowMoveMillis system
+ * property (1000 ms by default). Searches on the opponent's time are
+ * marked as ponder searches and never count as slow moves, since they run
+ * until they are stopped.
+ *
+ * Record with e.g. java -XX:StartFlightRecording=filename=search.jfr ...
+ */
+public class SearchEvents {
+
+	// Budget of searches without a time limit, in milliseconds
+	private static final long SLOW_MOVE_MILLIS = Long.getLong("checkers.slowMoveMillis", 1000L);
+
+	private SearchEvents() {
+	}
+
+	@Name("checkers.Search")
+	@Label("Search")
+	@Category("Checkers")
+	@Description("A search of one position by an engine")
+	public static class Search extends Event {
+		@Label("Engine")
+		String engine;
+
+		@Label("Position Hash")
+		long positionHash;
+
+		@Label("Depth Limit")
+		int depthLimit;
+
+		@Label("Time Limit")
+		@Timespan(Timespan.MILLISECONDS)
+		long millisLimit;
+
+		@Label("Node Limit")
+		long nodeLimit;
+
+		@Label("Nodes")
+		@Description("Minimax nodes or MCTS iterations")
+		long nodes;
+
+		@Label("Depth")
+		@Description("Depth of the last completed minimax iteration, or length of the MCTS line")
+		int depth;
+
+		@Label("Move")
+		String move;
+
+		@Label("Ponder")
+		@Description("True for a search on the opponent's time")
+		boolean ponder;
+
+		// Start of the search, to detect slow moves even when this event is disabled
+		transient long startNanos;
+	}
+
+	@Name("checkers.Iteration")
+	@Label("Iteration")
+	@Category("Checkers")
+	@Description("A completed iteration of iterative deepening")
+	public static class Iteration extends Event {
+		@Label("Position Hash")
+		long positionHash;
+
+		@Label("Depth")
+		int depth;
+
+		@Label("Nodes")
+		@Description("Nodes of the search so far")
+		long nodes;
+
+		@Label("Score")
+		int score;
+
+		@Label("Move")
+		String move;
+
+		@Label("Ponder")
+		@Description("True for an iteration of a search on the opponent's time")
+		boolean ponder;
+	}
+
+	@Name("checkers.SlowMove")
+	@Label("Slow Move")
+	@Category("Checkers")
+	@Description("A search that took longer than its budget")
+	public static class SlowMove extends Event {
+		@Label("Engine")
+		String engine;
+
+		@Label("Position Hash")
+		long positionHash;
+
+		@Label("Budget")
+		@Timespan(Timespan.MILLISECONDS)
+		long budget;
+
+		@Label("Elapsed")
+		@Timespan(Timespan.MILLISECONDS)
+		long elapsed;
+
+		@Label("Nodes")
+		long nodes;
+
+		@Label("Move")
+		String move;
+	}
+
+	/**
+	 * Starts the event of a search
+	 * @param engine the name of the engine
+	 * @param state  the searched state
+	 * @param limits the limits of the search
+	 * @return the started event
+	 */
+	public static Search begin(String engine, State state, SearchLimits limits) {
+		return begin(engine, state, limits, false);
+	}
+
+	/**
+	 * Starts the event of a search
+	 * @param engine the name of the engine
+	 * @param state  the searched state
+	 * @param limits the limits of the search
+	 * @param ponder true for a search on the opponent's time
+	 * @return the started event
+	 */
+	public static Search begin(String engine, State state, SearchLimits limits, boolean ponder) {
+		Search event = new Search();
+		event.startNanos = System.nanoTime();
+		event.engine = engine;
+		event.ponder = ponder;
+		if (event.isEnabled()) {
+			event.positionHash = state.getHash();
+			event.depthLimit = limits.getDepth();
+			event.millisLimit = limits.getMillis();
+			event.nodeLimit = Math.max(limits.getNodes(), limits.getIterations());
+		}
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Ends and commits the event of a search, and a SlowMove event if the
+	 * search took longer than its budget and is not a ponder search
+	 * @param event  the event returned by begin
+	 * @param state  the searched state
+	 * @param limits the limits of the search
+	 * @param move   the move found
+	 * @param nodes  the nodes or iterations searched
+	 * @param depth  the depth reached
+	 */
+	public static void end(Search event, State state, SearchLimits limits, Move move, long nodes, int depth) {
+		event.end();
+		String notation = move == null ? "" : move.getNotation();
+		if (event.shouldCommit()) {
+			event.nodes = nodes;
+			event.depth = depth;
+			event.move = notation;
+			event.commit();
+		}
+		long elapsed = (System.nanoTime() - event.startNanos) / 1000000L;
+		long budget = limits.getMillis() > 0 ? limits.getMillis() : SLOW_MOVE_MILLIS;
+		if (elapsed > budget && !event.ponder) {
+			SlowMove slow = new SlowMove();
+			if (slow.isEnabled()) {
+				slow.engine = event.engine;
+				slow.positionHash = state.getHash();
+				slow.budget = budget;
+				slow.elapsed = elapsed;
+				slow.nodes = nodes;
+				slow.move = notation;
+				slow.commit();
+			}
+		}
+	}
+
+	/**
+	 * Commits the event of a completed iteration
+	 * @param state the searched state
+	 * @param depth the depth of the iteration
+	 * @param nodes the nodes of the search so far
+	 * @param score the score for the side to move
+	 * @param move  the best move of the iteration
+	 */
+	public static void iteration(State state, int depth, long nodes, int score, Move move) {
+		iteration(state, depth, nodes, score, move, false);
+	}
+
+	/**
+	 * Commits the event of a completed iteration
+	 * @param state  the searched state
+	 * @param depth  the depth of the iteration
+	 * @param nodes  the nodes of the search so far
+	 * @param score  the score for the side to move
+	 * @param move   the best move of the iteration
+	 * @param ponder true for an iteration of a search on the opponent's time
+	 */
+	public static void iteration(State state, int depth, long nodes, int score, Move move, boolean ponder) {
+		Iteration event = new Iteration();
+		if (event.isEnabled()) {
+			event.ponder = ponder;
+			event.positionHash = state.getHash();
+			event.depth = depth;
+			event.nodes = nodes;
+			event.score = score;
+			event.move = move.getNotation();
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package mcts;
+
+/**
+ * Limits of a single search. A limit of 0 means that the limit is not
+ * used, and an engine falls back to its own setting when no limit
+ * applies to it.
+ */
+public class SearchLimits {
+
+	// Maximum depth of a minimax search
+	private int depth;
+
+	// Maximum time of the search in milliseconds
+	private long millis;
+
+	// Maximum number of minimax nodes
+	private long nodes;
+
+	// Maximum number of MCTS iterations
+	private int iterations;
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public void setDepth(int depth) {
+		this.depth = depth;
+	}
+
+	public long getMillis() {
+		return millis;
+	}
+
+	public void setMillis(long millis) {
+		this.millis = millis;
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public void setNodes(long nodes) {
+		this.nodes = nodes;
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	public void setIterations(int iterations) {
+		this.iterations = iterations;
+	}
+
+	public String toString() {
+		return "depth " + depth + " millis " + millis + " nodes " + nodes + " iterations " + iterations;
+	}
+}
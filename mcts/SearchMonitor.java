@@ -0,0 +1,81 @@
+package mcts;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Collects the statistics of the searches of one kind of engine and
+ * publishes them as the MXBean "checkers:type=SearchMonitor,engine=<name>"
+ * of the platform MBean server
+ */
+public class SearchMonitor implements SearchMonitorMXBean {
+
+	private static final ConcurrentHashMap<String, SearchMonitor> MONITORS = new ConcurrentHashMap<String, SearchMonitor>();
+
+	private long searches;
+	private long totalNodes;
+	private long totalMillis;
+	private SearchStats lastSearch;
+
+	private SearchMonitor() {
+	}
+
+	/**
+	 * Returns the monitor of an engine, registering it on first use
+	 * @param engine the name of the engine, e.g. "minimax"
+	 * @return the monitor
+	 */
+	public static SearchMonitor forEngine(String engine) {
+		return MONITORS.computeIfAbsent(engine, name -> {
+			SearchMonitor monitor = new SearchMonitor();
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(monitor,
+						new ObjectName("checkers:type=SearchMonitor,engine=" + name));
+			} catch (JMException e) {
+				// the statistics stay available through the monitor itself
+			}
+			return monitor;
+		});
+	}
+
+	/**
+	 * Records a finished search
+	 * @param stats the statistics of the search
+	 */
+	public synchronized void record(SearchStats stats) {
+		searches++;
+		totalNodes += Math.max(stats.getNodes(), stats.getIterations());
+		totalMillis += stats.getMillis();
+		lastSearch = stats;
+	}
+
+	public synchronized long getSearches() {
+		return searches;
+	}
+
+	public synchronized long getTotalNodes() {
+		return totalNodes;
+	}
+
+	public synchronized long getTotalMillis() {
+		return totalMillis;
+	}
+
+	public synchronized long getNodesPerSecond() {
+		return totalNodes * 1000 / Math.max(1, totalMillis);
+	}
+
+	public synchronized SearchStats getLastSearch() {
+		return lastSearch;
+	}
+
+	public synchronized void reset() {
+		searches = 0;
+		totalNodes = 0;
+		totalMillis = 0;
+		lastSearch = null;
+	}
+}
@@ -0,0 +1,43 @@
+package mcts;
+
+/**
+ * Management interface of SearchMonitor, for JConsole and other JMX
+ * clients
+ */
+public interface SearchMonitorMXBean {
+
+	/**
+	 * Returns the number of searches recorded since the last reset
+	 * @return the number of searches
+	 */
+	long getSearches();
+
+	/**
+	 * Returns the nodes (minimax) or iterations (MCTS) of all recorded searches
+	 * @return the total nodes or iterations
+	 */
+	long getTotalNodes();
+
+	/**
+	 * Returns the time of all recorded searches
+	 * @return the total time in milliseconds
+	 */
+	long getTotalMillis();
+
+	/**
+	 * Returns the average speed of all recorded searches
+	 * @return the nodes or iterations per second
+	 */
+	long getNodesPerSecond();
+
+	/**
+	 * Returns the statistics of the last recorded search
+	 * @return the statistics, or null before the first search
+	 */
+	SearchStats getLastSearch();
+
+	/**
+	 * Forgets the recorded searches
+	 */
+	void reset();
+}
@@ -0,0 +1,115 @@
+package mcts;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outcome of a search: the best move, its value, the principal
+ * variation and a few statistics about the search
+ */
+public class SearchResult {
+
+	private Move move;
+
+	// Minimax score from the point of view of the side to move
+	private int score;
+
+	// Expected outcome for the side to move between 0 and 1 (MCTS only, NaN otherwise)
+	private double winRate;
+
+	private List<Move> pv;
+
+	// Depth of the last completed minimax iteration, or the length of the MCTS line
+	private int depth;
+
+	// Minimax nodes or MCTS iterations
+	private long nodes;
+
+	private long millis;
+
+	// The best moves in order, for a multi-PV analysis
+	private List<RankedMove> lines;
+
+	// Counters of the search, if the engine's statistics are enabled
+	private SearchStats stats;
+
+	/**
+	 * Constructor
+	 * @param move    the best move
+	 * @param score   the minimax score for the side to move
+	 * @param winRate the MCTS value for the side to move, or NaN
+	 * @param pv      the principal variation, starting with move
+	 * @param depth   the search depth
+	 * @param nodes   the number of nodes or iterations searched
+	 * @param millis  the search time
+	 */
+	public SearchResult(Move move, int score, double winRate, List<Move> pv, int depth, long nodes, long millis) {
+		this.move = move;
+		this.score = score;
+		this.winRate = winRate;
+		this.pv = pv;
+		this.depth = depth;
+		this.nodes = nodes;
+		this.millis = millis;
+	}
+
+	/**
+	 * Constructor for engines that only return a move
+	 * @param move the selected move
+	 */
+	public SearchResult(Move move) {
+		this(move, 0, Double.NaN, new ArrayList<Move>(List.of(move)), 0, 0, 0);
+	}
+
+	public Move getMove() {
+		return move;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	public double getWinRate() {
+		return winRate;
+	}
+
+	public List<Move> getPv() {
+		return pv;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public long getMillis() {
+		return millis;
+	}
+
+	/**
+	 * Returns the ranked moves of a multi-PV analysis, or the best move
+	 * alone for a normal search
+	 * @return the moves, best first
+	 */
+	public List<RankedMove> getLines() {
+		if (lines == null) {
+			return List.of(new RankedMove(move, score, winRate, 0, Double.NaN, pv));
+		}
+		return lines;
+	}
+
+	public void setLines(List<RankedMove> lines) {
+		this.lines = lines;
+	}
+
+	public SearchStats getStats() {
+		return stats;
+	}
+
+	public void setStats(SearchStats stats) {
+		this.stats = stats;
+	}
+}
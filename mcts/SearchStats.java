@@ -0,0 +1,150 @@
+package mcts;
+
+/**
+ * Counters of one search. The minimax player fills in the nodes, cutoffs,
+ * transposition table hits, depth and branching factor, the MCTS player
+ * the iterations, tree size, maximum depth and the time spent in each
+ * phase. Engines only create the object when their statistics are
+ * enabled, so the counters cost nothing otherwise.
+ */
+public class SearchStats {
+
+	private long millis;
+
+	// Minimax
+	private long nodes;
+	private long cutoffs;
+	private long ttHits;
+	private int depth;
+	private double branchingFactor;
+
+	// MCTS
+	private long iterations;
+	private int treeSize;
+	private int maxDepth;
+	private long selectNanos;
+	private long expandNanos;
+	private long simulateNanos;
+	private long backpropagateNanos;
+
+	public void addCutoff() {
+		cutoffs++;
+	}
+
+	public void addTtHit() {
+		ttHits++;
+	}
+
+	/**
+	 * Records one MCTS iteration
+	 * @param depth        the number of tree nodes the selection went through
+	 * @param selectNanos  the time spent selecting, excluding expansion
+	 * @param expandNanos  the time spent expanding
+	 * @param simulateNanos the time spent in the playout
+	 * @param backpropagateNanos the time spent backing the outcome up
+	 */
+	public void addIteration(int depth, long selectNanos, long expandNanos, long simulateNanos, long backpropagateNanos) {
+		iterations++;
+		maxDepth = Math.max(maxDepth, depth);
+		this.selectNanos += selectNanos;
+		this.expandNanos += expandNanos;
+		this.simulateNanos += simulateNanos;
+		this.backpropagateNanos += backpropagateNanos;
+	}
+
+	public long getMillis() {
+		return millis;
+	}
+
+	public void setMillis(long millis) {
+		this.millis = millis;
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public void setNodes(long nodes) {
+		this.nodes = nodes;
+	}
+
+	public long getCutoffs() {
+		return cutoffs;
+	}
+
+	public long getTtHits() {
+		return ttHits;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public void setDepth(int depth) {
+		this.depth = depth;
+	}
+
+	/**
+	 * Returns the effective branching factor: the ratio of the nodes of
+	 * the last two iterations of iterative deepening, or the depth-th root
+	 * of the nodes for a single iteration
+	 * @return the effective branching factor, 0 if unknown
+	 */
+	public double getBranchingFactor() {
+		return branchingFactor;
+	}
+
+	public void setBranchingFactor(double branchingFactor) {
+		this.branchingFactor = branchingFactor;
+	}
+
+	public long getIterations() {
+		return iterations;
+	}
+
+	public int getTreeSize() {
+		return treeSize;
+	}
+
+	public void setTreeSize(int treeSize) {
+		this.treeSize = treeSize;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public long getSelectNanos() {
+		return selectNanos;
+	}
+
+	public long getExpandNanos() {
+		return expandNanos;
+	}
+
+	public long getSimulateNanos() {
+		return simulateNanos;
+	}
+
+	public long getBackpropagateNanos() {
+		return backpropagateNanos;
+	}
+
+	/**
+	 * Returns the nodes (minimax) or iterations (MCTS) per second
+	 * @return the search speed
+	 */
+	public long getNodesPerSecond() {
+		return Math.max(nodes, iterations) * 1000 / Math.max(1, millis);
+	}
+
+	public String toString() {
+		if (iterations > 0) {
+			return String.format("iterations %d tree %d maxdepth %d time %d ips %d select %d expand %d simulate %d backpropagate %d",
+					iterations, treeSize, maxDepth, millis, getNodesPerSecond(), selectNanos / 1000000,
+					expandNanos / 1000000, simulateNanos / 1000000, backpropagateNanos / 1000000);
+		}
+		return String.format("nodes %d cutoffs %d tthits %d depth %d ebf %.2f time %d nps %d",
+				nodes, cutoffs, ttHits, depth, branchingFactor, millis, getNodesPerSecond());
+	}
+}
@@ -0,0 +1,473 @@
+package mcts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generates training data from self-play. Games are played concurrently,
+ * one worker per thread with its own engine playing both sides, and every
+ * position of a game is written with the search's root visit
+ * distribution, its value and the final result of the game.
+ *
+ * Every worker writes its own gzip compressed shards, selfplay-W-N.bin.gz,
+ * starting a new shard after shardSize positions, so the workers never
+ * wait for each other. A shard is a sequence of samples:
+ *
+ *     state    StateCodec state
+ *     value    float, the search value for the side to move (the MCTS win
+ *              rate, or the minimax score)
+ *     result   byte, 1 if the side to move went on to win, 0 for a draw
+ *              and -1 for a loss
+ *     count    byte, the number of moves
+ *     moves    count times a StateCodec move and its visits as an int
+ *
+ * Engines without visit counts (minimax) give the played move one visit.
+ * The first samplePlies moves of a game are drawn in proportion to the
+ * visits to vary the games, the others are the engine's best move. Games
+ * still going after maxPlies moves are dropped, since they have no result.
+ *
+ * Usage: SelfPlay [--engine mcts:iterations=800] [--games 100] [--threads N]
+ *                 [--output dir] [--shard-size 100000] [--random-plies 2]
+ *                 [--sample-plies 8] [--max-plies 200] [--seed 1]
+ */
+public class SelfPlay {
+
+	// State, value, result and count of a sample, followed by count entries of a move and its visits
+	private static final int HEADER_BYTES = StateCodec.POSITION_BYTES + 6;
+	private static final int ENTRY_BYTES = StateCodec.MOVE_BYTES + 4;
+
+	// Size of the largest sample, whose count is a byte
+	private static final int MAX_SAMPLE_BYTES = Math.max(HEADER_BYTES, 255 * ENTRY_BYTES);
+
+	private Supplier<Engine> engines;
+	private Path output;
+	private int games = 100;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int shardSize = 100000;
+	private int randomPlies = 2;
+	private int samplePlies = 8;
+	private int maxPlies = 200;
+	private long seed = System.nanoTime();
+
+	private AtomicInteger nextGame = new AtomicInteger();
+	private AtomicLong positions = new AtomicLong();
+	private AtomicInteger finished = new AtomicInteger();
+	private AtomicInteger unfinished = new AtomicInteger();
+	private long startTime;
+
+	/**
+	 * A position of a self-play game
+	 */
+	public static class Sample {
+		private State state;
+		private float value;
+		private int result;
+		private List<Move> moves;
+		private int[] visits;
+
+		/**
+		 * Constructor
+		 * @param state  the position
+		 * @param value  the search value for the side to move
+		 * @param result 1, 0 or -1 as the side to move won, drew or lost the game
+		 * @param moves  the moves searched at the root
+		 * @param visits the visits of each move
+		 */
+		public Sample(State state, float value, int result, List<Move> moves, int[] visits) {
+			this.state = state;
+			this.value = value;
+			this.result = result;
+			this.moves = moves;
+			this.visits = visits;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		public float getValue() {
+			return value;
+		}
+
+		public int getResult() {
+			return result;
+		}
+
+		public List<Move> getMoves() {
+			return moves;
+		}
+
+		public int[] getVisits() {
+			return visits;
+		}
+	}
+
+	/**
+	 * Constructor
+	 * @param engines creates the engine of every worker
+	 * @param output  the directory of the shards
+	 */
+	public SelfPlay(Supplier<Engine> engines, Path output) {
+		this.engines = engines;
+		this.output = output;
+	}
+
+	/**
+	 * Plays the games and writes their positions
+	 * @return the number of positions written
+	 * @throws IOException if the output directory cannot be created
+	 * @throws InterruptedException if interrupted while waiting for the workers
+	 */
+	public long run() throws IOException, InterruptedException {
+		Files.createDirectories(output);
+		startTime = System.currentTimeMillis();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		try {
+			for (int i = 0; i < threads; i++) {
+				final int worker = i;
+				workers.add(pool.submit(() -> {
+					work(worker);
+					return null;
+				}));
+			}
+			for (Future<?> future : workers) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Self-play failed", e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		System.out.println("# " + progress());
+		return positions.get();
+	}
+
+	/**
+	 * Plays games until all are taken, writing them to the shards of a worker
+	 */
+	private void work(int worker) throws IOException {
+		Engine engine = engines.get();
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		OutputStream out = null;
+		int shard = 0;
+		int shardPositions = 0;
+		try {
+			int game;
+			while ((game = nextGame.getAndIncrement()) < games) {
+				List<Sample> samples = playGame(engine, new Random(seed + game));
+				if (samples == null) {
+					unfinished.incrementAndGet();
+					samples = new ArrayList<Sample>();
+				}
+				if (out == null || shardPositions >= shardSize) {
+					if (out != null) {
+						out.close();
+					}
+					Path path = output.resolve(String.format("selfplay-%d-%d.bin.gz", worker, shard++));
+					out = new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(path), 1 << 16));
+					shardPositions = 0;
+				}
+				for (Sample sample : samples) {
+					buffer.clear();
+					write(buffer, sample);
+					out.write(buffer.array(), 0, buffer.position());
+				}
+				shardPositions += samples.size();
+				positions.addAndGet(samples.size());
+				if (finished.incrementAndGet() % 10 == 0) {
+					System.out.println("# " + progress());
+				}
+			}
+		} finally {
+			if (out != null) {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Plays one game and returns its positions
+	 * @param engine the engine playing both sides
+	 * @param random chooses the opening and the sampled moves
+	 * @return the samples, with the result of the game, or null if the game
+	 *         did not end within maxPlies moves
+	 */
+	private List<Sample> playGame(Engine engine, Random random) {
+		State state = MatchRunner.initialState();
+		for (int ply = 0; ply < randomPlies && !state.isTerminalState(); ply++) {
+			ArrayList<Move> moves = state.getLegalMoves();
+			state = state.result(moves.get(random.nextInt(moves.size())));
+		}
+		List<Sample> samples = new ArrayList<Sample>();
+		SearchLimits limits = new SearchLimits();
+		while (!state.isTerminalState() && samples.size() < maxPlies) {
+			// Ranking every root move is free for MCTS but a full multi-PV search for minimax
+			SearchResult result = engine.analyse(state, limits, engine instanceof MCTSCheckers ? Integer.MAX_VALUE : 1);
+			List<RankedMove> lines = result.getLines();
+			List<Move> moves = new ArrayList<Move>(lines.size());
+			int[] visits = new int[lines.size()];
+			long total = 0;
+			for (int i = 0; i < lines.size(); i++) {
+				moves.add(lines.get(i).getMove());
+				visits[i] = (int) lines.get(i).getVisits();
+				total += visits[i];
+			}
+			if (total == 0) {
+				visits[0] = 1;
+			}
+			Move move = result.getMove();
+			if (samples.size() < samplePlies && total > 0) {
+				long pick = (long) (random.nextDouble() * total);
+				for (int i = 0; i < visits.length; i++) {
+					pick -= visits[i];
+					if (pick < 0) {
+						move = moves.get(i);
+						break;
+					}
+				}
+			}
+			float value = Double.isNaN(result.getWinRate()) ? result.getScore() : (float) result.getWinRate();
+			samples.add(new Sample(state, value, 0, moves, visits));
+			state = state.result(move);
+		}
+		if (!state.isTerminalState()) {
+			return null;
+		}
+		// The result of the last state, for the side to move in each sample
+		for (Sample sample : samples) {
+			if (state.playerWins() || state.opponentWins()) {
+				boolean won = state.playerWins() == sample.state.isPlayersTurn();
+				sample.result = won ? 1 : -1;
+			}
+		}
+		return samples;
+	}
+
+	/**
+	 * Writes a sample
+	 * @param buffer where the sample is written
+	 * @param sample
+	 */
+	public static void write(ByteBuffer buffer, Sample sample) {
+		StateCodec.writeState(buffer, sample.state);
+		buffer.putFloat(sample.value);
+		buffer.put((byte) sample.result);
+		buffer.put((byte) sample.moves.size());
+		for (int i = 0; i < sample.moves.size(); i++) {
+			StateCodec.writeMove(buffer, sample.moves.get(i));
+			buffer.putInt(sample.visits[i]);
+		}
+	}
+
+	/**
+	 * Returns the samples of a shard as a lazy stream, which must be closed
+	 * to close the file
+	 * @param shard a shard written by SelfPlay
+	 * @return the samples
+	 * @throws IOException if the shard cannot be opened
+	 */
+	public static Stream<Sample> samples(Path shard) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(Files.newInputStream(shard), 1 << 16)));
+		Iterator<Sample> iterator = new Iterator<Sample>() {
+			private Sample next;
+			private byte[] bytes = new byte[MAX_SAMPLE_BYTES];
+
+			public boolean hasNext() {
+				if (next == null) {
+					next = read(in, bytes);
+				}
+				return next != null;
+			}
+
+			public Sample next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Sample sample = next;
+				next = null;
+				return sample;
+			}
+		};
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+				Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(() -> {
+					try {
+						in.close();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+	}
+
+	/**
+	 * Reads the next sample, or returns null at the end of the shard
+	 * @param bytes a buffer of MAX_SAMPLE_BYTES
+	 */
+	private static Sample read(DataInputStream in, byte[] bytes) {
+		try {
+			try {
+				in.readFully(bytes, 0, HEADER_BYTES);
+			} catch (EOFException e) {
+				return null;
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			State state = StateCodec.readState(buffer);
+			float value = buffer.getFloat();
+			int result = buffer.get();
+			int count = buffer.get() & 0xFF;
+			in.readFully(bytes, 0, count * ENTRY_BYTES);
+			buffer.clear();
+			List<Move> moves = new ArrayList<Move>(count);
+			int[] visits = new int[count];
+			for (int i = 0; i < count; i++) {
+				moves.add(StateCodec.readMove(buffer));
+				visits[i] = buffer.getInt();
+			}
+			return new Sample(state, value, result, moves, visits);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Returns the games, positions and throughput so far
+	 * @return the progress line
+	 */
+	private String progress() {
+		double hours = Math.max(1, System.currentTimeMillis() - startTime) / 3600000.0;
+		int cores = Math.min(threads, Runtime.getRuntime().availableProcessors());
+		return String.format("games %d unfinished %d positions %d time %.0f s positions/hour/core %.0f",
+				finished.get(), unfinished.get(), positions.get(), hours * 3600, positions.get() / hours / cores);
+	}
+
+	public void setGames(int games) {
+		this.games = games;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void setShardSize(int shardSize) {
+		this.shardSize = shardSize;
+	}
+
+	public void setRandomPlies(int randomPlies) {
+		this.randomPlies = randomPlies;
+	}
+
+	public void setSamplePlies(int samplePlies) {
+		this.samplePlies = samplePlies;
+	}
+
+	public void setMaxPlies(int maxPlies) {
+		this.maxPlies = maxPlies;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String spec = "mcts:iterations=800";
+		Path output = Paths.get("selfplay");
+		Integer games = null;
+		Integer threads = null;
+		Integer shardSize = null;
+		Integer randomPlies = null;
+		Integer samplePlies = null;
+		Integer maxPlies = null;
+		Long seed = null;
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value for " + args[i]);
+			}
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "--engine":
+				spec = value;
+				break;
+			case "--output":
+				output = Paths.get(value);
+				break;
+			case "--games":
+				games = Integer.parseInt(value);
+				break;
+			case "--threads":
+				threads = Integer.parseInt(value);
+				break;
+			case "--shard-size":
+				shardSize = Integer.parseInt(value);
+				break;
+			case "--random-plies":
+				randomPlies = Integer.parseInt(value);
+				break;
+			case "--sample-plies":
+				samplePlies = Integer.parseInt(value);
+				break;
+			case "--max-plies":
+				maxPlies = Integer.parseInt(value);
+				break;
+			case "--seed":
+				seed = Long.parseLong(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+		SelfPlay selfPlay = new SelfPlay(Engines.factory(spec), output);
+		if (games != null) {
+			selfPlay.setGames(games);
+		}
+		if (threads != null) {
+			selfPlay.setThreads(threads);
+		}
+		if (shardSize != null) {
+			selfPlay.setShardSize(shardSize);
+		}
+		if (randomPlies != null) {
+			selfPlay.setRandomPlies(randomPlies);
+		}
+		if (samplePlies != null) {
+			selfPlay.setSamplePlies(samplePlies);
+		}
+		if (maxPlies != null) {
+			selfPlay.setMaxPlies(maxPlies);
+		}
+		if (seed != null) {
+			selfPlay.setSeed(seed);
+		}
+		System.out.println("# " + spec + " to " + output);
+		selfPlay.run();
+	}
+}
@@ -0,0 +1,247 @@
+package mcts;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sequential probability ratio test between two engines. Games are played
+ * in pairs (same opening, colours swapped) on the match runner's thread
+ * pool and the log-likelihood ratio of H1 (elo = elo1) against H0
+ * (elo = elo0) is updated after every pair, using the pentanomial
+ * distribution of the pair scores. The test stops as soon as the ratio
+ * leaves the bounds given by alpha and beta.
+ *
+ * Usage: Sprt --first mcts:c=1.2 --second mcts [--elo0 0] [--elo1 10]
+ *             [--alpha 0.05] [--beta 0.05] [--max-pairs 20000]
+ *             [--summary file] plus any MatchRunner option
+ */
+public class Sprt {
+
+	/**
+	 * Possible outcomes of the test
+	 */
+	public enum Result {
+		H0, H1, INCONCLUSIVE
+	}
+
+	private MatchRunner runner;
+	private double elo0;
+	private double elo1;
+	private double lowerBound;
+	private double upperBound;
+	private int maxPairs = 20000;
+	private PrintStream out = System.out;
+
+	// Number of pairs that scored 0, 0.5, 1, 1.5 and 2 points for the first engine
+	private int[] pentanomial = new int[5];
+
+	// Pseudo-count added to every pentanomial bucket by llr, so that the
+	// variance is never 0 when all pairs score the same
+	private static final double PSEUDO_COUNT = 0.5;
+	private MatchStats stats = new MatchStats();
+	private double llr;
+
+	/**
+	 * Constructor
+	 * @param runner supplies the engines, openings and thread count
+	 * @param elo0   the Elo difference of the null hypothesis
+	 * @param elo1   the Elo difference of the alternative hypothesis
+	 * @param alpha  the probability of accepting H1 when H0 is true
+	 * @param beta   the probability of accepting H0 when H1 is true
+	 */
+	public Sprt(MatchRunner runner, double elo0, double elo1, double alpha, double beta) {
+		this.runner = runner;
+		this.elo0 = elo0;
+		this.elo1 = elo1;
+		this.lowerBound = Math.log(beta / (1 - alpha));
+		this.upperBound = Math.log((1 - beta) / alpha);
+	}
+
+	/**
+	 * Plays pairs of games until a hypothesis is accepted or the maximum
+	 * number of pairs is reached
+	 * @return the outcome of the test
+	 * @throws InterruptedException if interrupted while waiting for games
+	 */
+	public Result run() throws InterruptedException {
+		int threads = runner.getThreads();
+		ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task);
+			thread.setDaemon(true); // abandoned pairs must not keep the JVM alive
+			return thread;
+		});
+		ExecutorCompletionService<double[]> completion = new ExecutorCompletionService<double[]>(pool);
+		Result result = Result.INCONCLUSIVE;
+		int submitted = 0;
+		int finished = 0;
+		try {
+			// Keep a bounded number of pairs in flight so we can stop early
+			for (; submitted < Math.min(2 * threads, maxPairs); submitted++) {
+				submitPair(completion, submitted);
+			}
+			while (finished < submitted) {
+				double[] scores;
+				try {
+					scores = completion.take().get();
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Game failed", e.getCause());
+				}
+				finished++;
+				stats.add(scores[0]);
+				stats.add(scores[1]);
+				double pairScore = scores[0] + scores[1];
+				pentanomial[(int) Math.round(2 * pairScore)]++;
+				llr = llr();
+				out.printf("pair %d score %.1f llr %.3f [%.3f, %.3f]%n", finished, pairScore, llr, lowerBound, upperBound);
+				if (llr >= upperBound) {
+					result = Result.H1;
+					break;
+				}
+				if (llr <= lowerBound) {
+					result = Result.H0;
+					break;
+				}
+				if (submitted < maxPairs) {
+					submitPair(completion, submitted++);
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		out.println("# " + stats);
+		out.println("# " + result);
+		return result;
+	}
+
+	private void submitPair(ExecutorCompletionService<double[]> completion, int pair) {
+		State start = runner.getOpening(pair);
+		int maxPlies = runner.getMaxPlies();
+		boolean ponder = runner.getPonder();
+		completion.submit(() -> {
+			MatchRunner.GameResult white = MatchRunner.playGame(2 * pair, pair, runner.getFirst().get(),
+					runner.getSecond().get(), start, true, maxPlies, ponder);
+			MatchRunner.GameResult black = MatchRunner.playGame(2 * pair + 1, pair, runner.getFirst().get(),
+					runner.getSecond().get(), start, false, maxPlies, ponder);
+			return new double[] {white.score, black.score};
+		});
+	}
+
+	/**
+	 * Returns the log-likelihood ratio of H1 against H0 for the pairs
+	 * played so far, using the normal approximation of the pentanomial
+	 * model. Every bucket gets PSEUDO_COUNT extra pairs, as fishtest
+	 * regularises its counts, so that a match in which every pair ends the
+	 * same way still moves the ratio and can stop early.
+	 * @return the log-likelihood ratio
+	 */
+	public double llr() {
+		int played = 0;
+		for (int i = 0; i < 5; i++) {
+			played += pentanomial[i];
+		}
+		if (played == 0) {
+			return 0;
+		}
+		double pairs = 0;
+		double mean = 0;
+		for (int i = 0; i < 5; i++) {
+			pairs += pentanomial[i] + PSEUDO_COUNT;
+			mean += (pentanomial[i] + PSEUDO_COUNT) * i / 4.0;
+		}
+		mean /= pairs;
+		double variance = 0;
+		for (int i = 0; i < 5; i++) {
+			variance += (pentanomial[i] + PSEUDO_COUNT) * (i / 4.0 - mean) * (i / 4.0 - mean);
+		}
+		variance /= pairs;
+		double s0 = expectedScore(elo0);
+		double s1 = expectedScore(elo1);
+		return pairs * (s1 - s0) * (2 * mean - s0 - s1) / (2 * variance);
+	}
+
+	/**
+	 * Returns the expected score of an engine that is elo points stronger
+	 * @param elo
+	 * @return a score between 0 and 1
+	 */
+	public static double expectedScore(double elo) {
+		return 1 / (1 + Math.pow(10, -elo / 400));
+	}
+
+	/**
+	 * Writes the summary of the run as "key: value" lines
+	 * @param path    the summary file
+	 * @param result  the outcome of the test
+	 * @param seconds the running time of the test
+	 * @throws IOException
+	 */
+	public void writeSummary(Path path, Result result, double seconds) throws IOException {
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path))) {
+			double score = stats.getScore();
+			double margin = stats.getScoreMargin();
+			writer.println("first: " + runner.getFirstName());
+			writer.println("second: " + runner.getSecondName());
+			writer.printf("elo0: %.2f%n", elo0);
+			writer.printf("elo1: %.2f%n", elo1);
+			writer.printf("bounds: %.3f %.3f%n", lowerBound, upperBound);
+			writer.printf("llr: %.3f%n", llr);
+			writer.println("result: " + result);
+			writer.println("games: " + stats.getGames());
+			writer.println("wins: " + stats.getWins());
+			writer.println("draws: " + stats.getDraws());
+			writer.println("losses: " + stats.getLosses());
+			writer.printf("pentanomial: %d %d %d %d %d%n", pentanomial[0], pentanomial[1], pentanomial[2],
+					pentanomial[3], pentanomial[4]);
+			writer.printf("score: %.4f +- %.4f%n", score, margin);
+			writer.printf("elo: %.1f [%.1f, %.1f]%n", MatchStats.toElo(score), MatchStats.toElo(score - margin),
+					MatchStats.toElo(score + margin));
+			writer.printf("seconds: %.1f%n", seconds);
+		}
+	}
+
+	public void setMaxPairs(int maxPairs) {
+		this.maxPairs = maxPairs;
+	}
+
+	public void setOutput(PrintStream out) {
+		this.out = out;
+	}
+
+	public MatchStats getStats() {
+		return stats;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Map<String, String> options = new HashMap<String, String>();
+		MatchRunner runner = MatchRunner.fromArguments(args, options);
+		double elo0 = Double.parseDouble(options.getOrDefault("--elo0", "0"));
+		double elo1 = Double.parseDouble(options.getOrDefault("--elo1", "10"));
+		double alpha = Double.parseDouble(options.getOrDefault("--alpha", "0.05"));
+		double beta = Double.parseDouble(options.getOrDefault("--beta", "0.05"));
+		Path summary = Paths.get(options.getOrDefault("--summary", "sprt-" + System.currentTimeMillis() + ".txt"));
+		Sprt sprt = new Sprt(runner, elo0, elo1, alpha, beta);
+		if (options.containsKey("--max-pairs")) {
+			sprt.setMaxPairs(Integer.parseInt(options.get("--max-pairs")));
+		}
+		for (String option : options.keySet()) {
+			if (!option.matches("--(elo0|elo1|alpha|beta|summary|max-pairs)")) {
+				throw new IllegalArgumentException("Unknown option: " + option);
+			}
+		}
+		System.out.println("# " + runner.getFirstName() + " vs " + runner.getSecondName());
+		long start = System.currentTimeMillis();
+		Result result = sprt.run();
+		sprt.writeSummary(summary, result, (System.currentTimeMillis() - start) / 1000.0);
+		System.out.println("# summary written to " + summary);
+	}
+}
@@ -42,6 +42,14 @@ public class State implements Serializable {
 	
 	private HashMap<String, Integer> differences;
 	
+	// Zobrist hash of the state, computed when first needed
+	private long hash;
+	private boolean hashed;
+	
+	// Hash of the canonical form of the state, see Symmetry
+	private long symmetricHash;
+	private boolean symmetricHashed;
+	
 	
 	/**
 	 * Constructor for State
@@ -56,11 +64,8 @@ public class State implements Serializable {
 		this.pScore = pScore;
 		this.oScore = oScore;
 		this.utility = 0;
-		numPieces = new HashMap<String, Integer>();		
+		numPieces = countPieces();
 		differences = new HashMap<String, Integer>();
-		for (String piece : KEYS) {
-			numPieces.put(piece, 0);
-		}
 		legalMoves = allLegalMoves();
 		for (String piece : KEYS) {
 			differences.put(piece, 0);
@@ -78,11 +83,8 @@ public class State implements Serializable {
 		this.pScore = 0;
 		this.oScore = 0;
 		this.utility = 0;
-		numPieces = new HashMap<String, Integer>();
+		numPieces = countPieces();
 		differences = new HashMap<String, Integer>();
-		for (String piece : KEYS) {
-			numPieces.put(piece, 0);
-		}
 		legalMoves = allLegalMoves();
 		for (String piece : KEYS) {
 			differences.put(piece, 0);
@@ -95,6 +97,16 @@ public class State implements Serializable {
 	 *         in the state
 	 */
 	public ArrayList<Move> allLegalMoves() {
+		return allLegalMoves(turn);
+	}
+	
+	/***
+	 * Returns an ArrayList of legal Moves for the given side, without
+	 * changing the state
+	 * @param turn true for the player's moves, false for the opponent's
+	 * @return an ArrayList of Move objects that represents the legal moves
+	 */
+	private ArrayList<Move> allLegalMoves(boolean turn) {
 		int relativePlayer = 0;
 		int relativeOpponent = 0;
 		int kingPiece = 0;
@@ -134,8 +146,6 @@ public class State implements Serializable {
 						}
 					}
 					addJumpMoves(jumps, board[i][j], relativeOpponent, opponentKingPiece, i, j);
-					String key = KEYS[board[i][j] - 1];
-					numPieces.put(key, numPieces.get(key) + 1);
 				}
 			}
 		}
@@ -148,6 +158,25 @@ public class State implements Serializable {
 		}
 	}
 	
+	/**
+	 * Counts the pieces of each kind on the board
+	 * @return a map from the piece names in KEYS to their number
+	 */
+	private HashMap<String, Integer> countPieces() {
+		HashMap<String, Integer> counts = new HashMap<String, Integer>();
+		for (String piece : KEYS) {
+			counts.put(piece, 0);
+		}
+		for (int[] row : board) {
+			for (int i : row) {
+				if (i != 0) {
+					counts.put(KEYS[i - 1], counts.get(KEYS[i - 1]) + 1);
+				}
+			}
+		}
+		return counts;
+	}
+	
 	/**
 	 * Adds jump moves that the player/opponent can make with the piece at
 	 * row i and column j by breadth-first search
@@ -353,9 +382,7 @@ public class State implements Serializable {
 		}
 		
 		ArrayList<Move> playerMoves = legalMoves;
-		turn = !turn;
-		ArrayList<Move> opponentMoves = allLegalMoves();
-		turn = !turn;
+		ArrayList<Move> opponentMoves = allLegalMoves(!turn);
 		if (playerMoves.isEmpty() && opponentMoves.isEmpty()) {
 			utility = 0;
 			return true;
@@ -398,6 +425,8 @@ public class State implements Serializable {
 	
 	public void setBoard(int[][] board) {
 		this.board = board;
+		this.hashed = false;
+		this.symmetricHashed = false;
 	}
 	
 	public int getPScore() {
@@ -498,6 +527,31 @@ public class State implements Serializable {
 		
 	}
 	
+	/**
+	 * Returns the 64-bit Zobrist hash of the board and side to move
+	 * @return the hash of the state
+	 */
+	public long getHash() {
+		if (!hashed) {
+			hash = Zobrist.hash(board, turn);
+			hashed = true;
+		}
+		return hash;
+	}
+	
+	/**
+	 * Returns the same hash for a state and its colour-swapped mirror: the
+	 * hash of the state if it is the player's turn, else of its mirror
+	 * @return the hash of the canonical form of the state
+	 */
+	public long getSymmetricHash() {
+		if (!symmetricHashed) {
+			symmetricHash = turn ? getHash() : Zobrist.mirrorHash(board, turn);
+			symmetricHashed = true;
+		}
+		return symmetricHash;
+	}
+	
 	public int hashCode() {
 		int count = 0;
 		int hash = 0;
@@ -0,0 +1,191 @@
+package mcts;
+
+import static mcts.State.*;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary form of states, moves and game records, for bulk storage
+ * and for passing positions between processes. Every method reads or
+ * writes at the current position of a ByteBuffer and advances it, so any
+ * number of records can be streamed through one buffer.
+ *
+ * A state takes POSITION_BYTES bytes: the 32-bit masks of the player's
+ * pieces, the opponent's pieces and the kings (bit pos - 1 for square
+ * pos), one byte for the side to move and one byte for the two scores.
+ * A move takes MOVE_BYTES bytes: from and to in a short, 6 bits each, and
+ * the 32-bit mask of the captured squares. A game is its starting state,
+ * the number of moves as a short, and the moves.
+ */
+public class StateCodec {
+
+	// Size of an encoded state
+	public static final int POSITION_BYTES = 14;
+
+	// Size of an encoded move
+	public static final int MOVE_BYTES = 6;
+
+	private StateCodec() {
+	}
+
+	/**
+	 * Writes a state
+	 * @param buffer where the state is written
+	 * @param state
+	 */
+	public static void writeState(ByteBuffer buffer, State state) {
+		int[][] board = state.getBoard();
+		int player = 0;
+		int opponent = 0;
+		int kings = 0;
+		for (int pos = 1; pos <= 32; pos++) {
+			int piece = board[posToRow(pos)][posToCol(pos)];
+			int bit = 1 << (pos - 1);
+			if (piece == 1 || piece == 3) {
+				player |= bit;
+			}
+			else if (piece == 2 || piece == 4) {
+				opponent |= bit;
+			}
+			if (piece > 2) {
+				kings |= bit;
+			}
+		}
+		buffer.putInt(player);
+		buffer.putInt(opponent);
+		buffer.putInt(kings);
+		buffer.put((byte) (state.isPlayersTurn() ? 1 : 0));
+		buffer.put((byte) ((state.getPScore() << 4) | (state.getOScore() & 0xF)));
+	}
+
+	/**
+	 * Reads a state written by writeState
+	 * @param buffer where the state is read
+	 * @return the state
+	 * @throws IllegalArgumentException if the masks overlap
+	 */
+	public static State readState(ByteBuffer buffer) {
+		int player = buffer.getInt();
+		int opponent = buffer.getInt();
+		int kings = buffer.getInt();
+		boolean turn = buffer.get() != 0;
+		int scores = buffer.get() & 0xFF;
+		if ((player & opponent) != 0 || (kings & ~(player | opponent)) != 0) {
+			throw new IllegalArgumentException("Corrupt state: overlapping masks");
+		}
+		int[][] board = new int[8][8];
+		for (int pos = 1; pos <= 32; pos++) {
+			int bit = 1 << (pos - 1);
+			int piece = 0;
+			if ((player & bit) != 0) {
+				piece = (kings & bit) != 0 ? 3 : 1;
+			}
+			else if ((opponent & bit) != 0) {
+				piece = (kings & bit) != 0 ? 4 : 2;
+			}
+			board[posToRow(pos)][posToCol(pos)] = piece;
+		}
+		return new State(board, turn, scores >>> 4, scores & 0xF);
+	}
+
+	/**
+	 * Writes a move
+	 * @param buffer where the move is written
+	 * @param move
+	 */
+	public static void writeMove(ByteBuffer buffer, Move move) {
+		int captures = 0;
+		for (int pos : move.getJumps()) {
+			captures |= 1 << (pos - 1);
+		}
+		buffer.putShort((short) ((move.getFrom() << 6) | move.getTo()));
+		buffer.putInt(captures);
+	}
+
+	/**
+	 * Reads a move written by writeMove. The captured squares are listed
+	 * in increasing order, which does not change the result of the move.
+	 * @param buffer where the move is read
+	 * @return the move
+	 */
+	public static Move readMove(ByteBuffer buffer) {
+		int squares = buffer.getShort() & 0xFFF;
+		int captures = buffer.getInt();
+		Move move = new Move(squares >>> 6, squares & 0x3F);
+		for (int pos = 1; pos <= 32; pos++) {
+			if ((captures & (1 << (pos - 1))) != 0) {
+				move.addJump(pos);
+			}
+		}
+		return move;
+	}
+
+	/**
+	 * Reads a move written by writeMove and returns the matching legal
+	 * move of a state
+	 * @param buffer where the move is read
+	 * @param state  the state the move is played in
+	 * @return the legal move
+	 * @throws IllegalArgumentException if the move is not legal in state
+	 */
+	public static Move readMove(ByteBuffer buffer, State state) {
+		Move read = readMove(buffer);
+		for (Move move : state.getLegalMoves()) {
+			if (move.equals(read) && move.getNumJumps() == read.getNumJumps()
+					&& move.getJumps().containsAll(read.getJumps())) {
+				return move;
+			}
+		}
+		throw new IllegalArgumentException("Illegal move: " + read.getNotation());
+	}
+
+	/**
+	 * Writes a game record
+	 * @param buffer where the game is written
+	 * @param start  the starting state
+	 * @param moves  the moves played from start
+	 */
+	public static void writeGame(ByteBuffer buffer, State start, List<Move> moves) {
+		writeState(buffer, start);
+		buffer.putShort((short) moves.size());
+		for (Move move : moves) {
+			writeMove(buffer, move);
+		}
+	}
+
+	/**
+	 * Reads the moves of a game record written by writeGame, checking
+	 * that every move is legal
+	 * @param buffer where the game is read
+	 * @param states filled with the starting state and the state after
+	 *               every move
+	 * @return the moves of the game
+	 * @throws IllegalArgumentException if a move is illegal
+	 * @throws BufferUnderflowException if the record is truncated
+	 */
+	public static List<Move> readGame(ByteBuffer buffer, List<State> states) {
+		State state = readState(buffer);
+		states.add(state);
+		int count = buffer.getShort() & 0xFFFF;
+		List<Move> moves = new ArrayList<Move>(count);
+		for (int i = 0; i < count; i++) {
+			Move move = readMove(buffer, state);
+			moves.add(move);
+			state = state.result(move);
+			states.add(state);
+		}
+		return moves;
+	}
+
+	/**
+	 * Returns the size of an encoded game record
+	 * @param moves the number of moves of the game
+	 * @return the number of bytes
+	 */
+	public static int gameBytes(int moves) {
+		return POSITION_BYTES + 2 + moves * MOVE_BYTES;
+	}
+}
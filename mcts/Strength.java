@@ -0,0 +1,156 @@
+package mcts;
+
+/**
+ * Playing strengths of the AI, defined by how much work it may do per move
+ * instead of by a search depth: a fixed depth takes microseconds in closed
+ * positions and seconds in open ones, while a node budget gives every move
+ * about the same strength and time. Every level also has a time limit, so
+ * that a slow machine stops the search before the budget is spent.
+ *
+ * The latency below is the median and 90th percentile time per move of
+ * 36 positions of Bench (12 each with 6, 16 and 30 random plies) on one
+ * core, e.g.
+ *   Bench --positions 12 --random-plies 16 --seed 16 easy medium hard
+ * and the Elo is relative to EASY, from MatchRunner matches between
+ * neighbouring levels, e.g.
+ *   MatchRunner --first medium --second easy --games 20 --threads 1
+ * The matches are short, so the Elo is accurate to about 100. Levels should
+ * be measured again when the search or the evaluation changes.
+ */
+public enum Strength {
+
+	/** 50 ms, 60 ms at the 90th percentile; Elo 0, even with the old depth 5 */
+	EASY("Easy", "minimax", 1000, 250),
+
+	/** 370 ms, 590 ms at the 90th percentile; Elo +300 */
+	MEDIUM("Medium", "minimax", 15000, 1000),
+
+	/** 2.1 s, 3 s at the 90th percentile; Elo +490 */
+	HARD("Insane", "minimax", 100000, 3000);
+
+	private final String label;
+	private final String spec;
+	private final long nodes;
+	private final long millis;
+
+	private Strength(String label, String spec, long nodes, long millis) {
+		this.label = label;
+		this.spec = spec;
+		this.nodes = nodes;
+		this.millis = millis;
+	}
+
+	/**
+	 * Returns the name shown in the GUI
+	 * @return the label of the level
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * Returns the engine specification of the level, see Engines
+	 * @return the specification of the engine without its limits
+	 */
+	public String getSpec() {
+		return spec;
+	}
+
+	/**
+	 * Returns the limits of every move of the level
+	 * @return new limits with the node and time budget of a move
+	 */
+	public SearchLimits getLimits() {
+		SearchLimits limits = new SearchLimits();
+		limits.setNodes(nodes);
+		limits.setMillis(millis);
+		return limits;
+	}
+
+	/**
+	 * Creates a new engine that plays at this level. Its getMove searches
+	 * within the limits of the level, and so do search and analyse unless
+	 * they are given limits of their own.
+	 * @return a new engine
+	 */
+	public Engine createEngine() {
+		return new LimitedEngine(Engines.create(spec), getLimits());
+	}
+
+	/**
+	 * Returns the level with a name, ignoring case
+	 * @param name the name of a level, e.g. "easy", or its label
+	 * @return the level
+	 * @throws IllegalArgumentException if there is no such level
+	 */
+	public static Strength parse(String name) {
+		Strength strength = find(name);
+		if (strength == null) {
+			throw new IllegalArgumentException("Unknown strength: " + name);
+		}
+		return strength;
+	}
+
+	/**
+	 * Returns the level with a name, ignoring case
+	 * @param name the name of a level, e.g. "easy", or its label
+	 * @return the level, or null if there is no such level
+	 */
+	public static Strength find(String name) {
+		for (Strength strength : values()) {
+			if (strength.name().equalsIgnoreCase(name.trim()) || strength.label.equalsIgnoreCase(name.trim())) {
+				return strength;
+			}
+		}
+		return null;
+	}
+
+	public String toString() {
+		return name().toLowerCase() + " (" + spec + ", " + nodes + " nodes, " + millis + " ms)";
+	}
+
+	/**
+	 * An engine that searches within fixed limits when it is asked for a move
+	 */
+	private static class LimitedEngine implements Engine {
+
+		private Engine engine;
+		private SearchLimits limits;
+
+		LimitedEngine(Engine engine, SearchLimits limits) {
+			this.engine = engine;
+			this.limits = limits;
+		}
+
+		public Move getMove(State state) {
+			return engine.search(state, limits).getMove();
+		}
+
+		public SearchResult search(State state, SearchLimits limits) {
+			return engine.search(state, orDefault(limits));
+		}
+
+		public SearchResult analyse(State state, SearchLimits limits, int count) {
+			return engine.analyse(state, orDefault(limits), count);
+		}
+
+		public void startPondering(State state) {
+			engine.startPondering(state);
+		}
+
+		public void stopPondering() {
+			engine.stopPondering();
+		}
+
+		/**
+		 * Returns limits if any of them is set, else the limits of the level
+		 */
+		private SearchLimits orDefault(SearchLimits limits) {
+			if (limits.getDepth() > 0 || limits.getMillis() > 0 || limits.getNodes() > 0
+					|| limits.getIterations() > 0) {
+				return limits;
+			}
+			return this.limits;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package mcts;
+
+import static mcts.State.*;
+
+/**
+ * The colour symmetry of checkers: swapping the colours of all pieces
+ * (1 and 2, 3 and 4) and turning the board around (square s becomes
+ * square 33 - s) gives the mirror of a state, with the other side to
+ * move. A state and its mirror are the same position seen from the other
+ * side: the side to move has the same moves, mirrored, and the same
+ * outcome, and a value from the player's point of view changes sign.
+ *
+ * Every pair has one member with the player to move, which is taken as
+ * the canonical form, and State.getSymmetricHash is the hash of the
+ * canonical form. Tables keyed by it store a position once for both
+ * colours, if they store values from the side to move's point of view
+ * or convert them with sign, and store moves of the canonical form.
+ */
+public class Symmetry {
+
+	private Symmetry() {
+	}
+
+	/**
+	 * Returns the piece of the other colour
+	 * @param piece 0 to 4
+	 * @return the piece with the colour swapped, 0 for an empty square
+	 */
+	public static int swap(int piece) {
+		switch (piece) {
+		case 1:
+			return 2;
+		case 2:
+			return 1;
+		case 3:
+			return 4;
+		case 4:
+			return 3;
+		default:
+			return piece;
+		}
+	}
+
+	/**
+	 * Returns the mirror of a state
+	 * @param state
+	 * @return the state with the colours swapped, the board turned around
+	 *         and the other side to move
+	 */
+	public static State mirror(State state) {
+		int[][] board = state.getBoard();
+		int[][] mirror = new int[8][8];
+		for (int pos = 1; pos <= 32; pos++) {
+			mirror[posToRow(33 - pos)][posToCol(33 - pos)] = swap(board[posToRow(pos)][posToCol(pos)]);
+		}
+		return new State(mirror, !state.isPlayersTurn(), state.getOScore(), state.getPScore());
+	}
+
+	/**
+	 * Returns the move of the mirror of a state that mirrors a move
+	 * @param move a move
+	 * @return the move with its squares turned around
+	 */
+	public static Move mirror(Move move) {
+		if (move.getFrom() == 0) {
+			return move; // the empty move of a terminal state
+		}
+		Move mirror = new Move(33 - move.getFrom(), 33 - move.getTo());
+		for (int pos : move.getJumps()) {
+			mirror.addJump(33 - pos);
+		}
+		return mirror;
+	}
+
+	/**
+	 * Returns true if a state is the canonical form of its pair
+	 * @param state
+	 * @return true if it is the player's turn
+	 */
+	public static boolean isCanonical(State state) {
+		return state.isPlayersTurn();
+	}
+
+	/**
+	 * Returns the canonical form of a state
+	 * @param state
+	 * @return the state if it is the player's turn, else its mirror
+	 */
+	public static State canonical(State state) {
+		return isCanonical(state) ? state : mirror(state);
+	}
+
+	/**
+	 * Returns the sign that turns a value of a state from the player's
+	 * point of view into the value of its canonical form, and back
+	 * @param state
+	 * @return 1 if the state is canonical, else -1
+	 */
+	public static int sign(State state) {
+		return isCanonical(state) ? 1 : -1;
+	}
+
+	/**
+	 * Returns the move of the canonical form of a state that matches a
+	 * move of the state, or the other way round
+	 * @param state the state the move is played in
+	 * @param move  a move of state, or of its canonical form
+	 * @return the move mirrored if state is not canonical
+	 */
+	public static Move canonical(State state, Move move) {
+		return isCanonical(state) ? move : mirror(move);
+	}
+}
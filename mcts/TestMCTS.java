@@ -5,6 +5,7 @@ import minimax.*;
 import static mcts.MCTSCheckers.*;
 
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Class for test MCTS player
@@ -19,7 +20,7 @@ public class TestMCTS {
 	
 	public static Move rando(State state) {
 		ArrayList<Move> moves = state.getLegalMoves();
-		return moves.get( (int) (Math.random() * moves.size()));
+		return moves.get(ThreadLocalRandom.current().nextInt(moves.size()));
 	}
 	
 	public static void playAgainstRandomPlayer(int numOfGames) {
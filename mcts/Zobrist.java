@@ -0,0 +1,67 @@
+package mcts;
+
+import java.util.Random;
+
+import static mcts.State.*;
+
+/**
+ * Zobrist keys for 64-bit position hashes. The keys are generated from a
+ * fixed seed so that hashes are the same in every run and can be stored
+ * in files.
+ */
+public class Zobrist {
+
+	// PIECES[piece][pos] is the key of a piece (1 to 4) on a square (1 to 32)
+	private static final long[][] PIECES = new long[5][33];
+
+	// Key of the player (black) to move
+	private static final long PLAYER_TO_MOVE;
+
+	static {
+		Random random = new Random(207L);
+		for (int piece = 1; piece <= 4; piece++) {
+			for (int pos = 1; pos <= 32; pos++) {
+				PIECES[piece][pos] = random.nextLong();
+			}
+		}
+		PLAYER_TO_MOVE = random.nextLong();
+	}
+
+	private Zobrist() {
+	}
+
+	/**
+	 * Returns the hash of a board and side to move
+	 * @param board the board array of a state
+	 * @param turn  true if it is the player's turn
+	 * @return the 64-bit hash
+	 */
+	public static long hash(int[][] board, boolean turn) {
+		long hash = turn ? PLAYER_TO_MOVE : 0;
+		for (int pos = 1; pos <= 32; pos++) {
+			int piece = board[posToRow(pos)][posToCol(pos)];
+			if (piece != 0) {
+				hash ^= PIECES[piece][pos];
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the hash of the mirror of a board, with the colours swapped
+	 * and the board turned around, without building it
+	 * @param board the board array of a state
+	 * @param turn  true if it is the player's turn in the state
+	 * @return the hash of the mirror, which has the other side to move
+	 */
+	public static long mirrorHash(int[][] board, boolean turn) {
+		long hash = turn ? 0 : PLAYER_TO_MOVE;
+		for (int pos = 1; pos <= 32; pos++) {
+			int piece = board[posToRow(pos)][posToCol(pos)];
+			if (piece != 0) {
+				hash ^= PIECES[Symmetry.swap(piece)][33 - pos];
+			}
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,264 @@
+package minimax;
+
+import static mcts.State.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+
+import mcts.Move;
+import mcts.State;
+
+/**
+ * Table-driven evaluation for the alpha-beta search. Material, piece-square
+ * and back rank terms are folded into one table per piece, so the search
+ * can update them with a few additions per move (see delta) and a leaf
+ * only adds the mobility term. Values are from the player's point of view.
+ *
+ * Weights are read from a properties file with the keys man, king,
+ * backRank, mobility, manTable and kingTable, the tables being 32 comma
+ * separated values. The tables are written from the side of the piece's
+ * owner: square 1 is on the owner's back rank. Missing keys keep their
+ * default values.
+ */
+public class Evaluator {
+
+	// Value of a won state for the player
+	public static final int WIN = 10000;
+
+	private int man = 100;
+	private int king = 150;
+
+	// Bonus for each man still guarding its own back rank
+	private int backRank = 8;
+
+	// Bonus for each legal move of the side to move
+	private int mobility = 2;
+
+	// Bonus of a man on each square, growing as it gets closer to promotion
+	private int[] manTable = {
+			0, 0, 0, 0,
+			2, 2, 2, 1,
+			2, 4, 4, 3,
+			4, 6, 6, 4,
+			6, 9, 9, 7,
+			9, 13, 13, 9,
+			14, 18, 18, 14,
+			0, 0, 0, 0
+	};
+
+	// Bonus of a king on each square, for staying out of the corners and edges
+	private int[] kingTable = {
+			0, 0, 0, 0,
+			0, 2, 2, 0,
+			2, 6, 6, 2,
+			2, 8, 8, 2,
+			2, 8, 8, 2,
+			2, 6, 6, 2,
+			0, 2, 2, 0,
+			0, 0, 0, 0
+	};
+
+	// PIECES[piece][pos] is the signed value of a piece (1 to 4) on a square (1 to 32)
+	private int[][] pieces = new int[5][33];
+	
+	// Identifies the weights in the keys of cached evaluations
+	private long key;
+
+	/**
+	 * Constructor with the default weights
+	 */
+	public Evaluator() {
+		buildTables();
+	}
+
+	/**
+	 * Constructor with weights read from a file
+	 * @param path a properties file
+	 * @throws IOException
+	 */
+	public Evaluator(Path path) throws IOException {
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(path)) {
+			properties.load(reader);
+		}
+		man = intProperty(properties, "man", man);
+		king = intProperty(properties, "king", king);
+		backRank = intProperty(properties, "backRank", backRank);
+		mobility = intProperty(properties, "mobility", mobility);
+		manTable = tableProperty(properties, "manTable", manTable);
+		kingTable = tableProperty(properties, "kingTable", kingTable);
+		buildTables();
+	}
+
+	/**
+	 * Constructor with the given weights
+	 * @param man       the value of a man
+	 * @param king      the value of a king
+	 * @param backRank  the bonus of a man on its own back rank
+	 * @param mobility  the bonus of each legal move of the side to move
+	 * @param manTable  the 32 square bonuses of a man
+	 * @param kingTable the 32 square bonuses of a king
+	 */
+	public Evaluator(int man, int king, int backRank, int mobility, int[] manTable, int[] kingTable) {
+		this.man = man;
+		this.king = king;
+		this.backRank = backRank;
+		this.mobility = mobility;
+		this.manTable = manTable.clone();
+		this.kingTable = kingTable.clone();
+		buildTables();
+	}
+
+	/**
+	 * Writes the weights to a properties file that the path constructor reads
+	 * @param path the file to write
+	 * @throws IOException
+	 */
+	public void save(Path path) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(path)) {
+			writer.write("man=" + man + "\n");
+			writer.write("king=" + king + "\n");
+			writer.write("backRank=" + backRank + "\n");
+			writer.write("mobility=" + mobility + "\n");
+			writer.write("manTable=" + join(manTable) + "\n");
+			writer.write("kingTable=" + join(kingTable) + "\n");
+		}
+	}
+
+	private static String join(int[] table) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < table.length; i++) {
+			if (i > 0) {
+				builder.append(i % 4 == 0 ? ", \\\n    " : ", ");
+			}
+			builder.append(table[i]);
+		}
+		return builder.toString();
+	}
+
+	public int getMan() {
+		return man;
+	}
+
+	public int getKing() {
+		return king;
+	}
+
+	public int getBackRank() {
+		return backRank;
+	}
+
+	public int getMobility() {
+		return mobility;
+	}
+
+	public int[] getManTable() {
+		return manTable.clone();
+	}
+
+	public int[] getKingTable() {
+		return kingTable.clone();
+	}
+
+	private static int intProperty(Properties properties, String key, int defaultValue) {
+		String value = properties.getProperty(key);
+		return value == null ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	private static int[] tableProperty(Properties properties, String key, int[] defaultValue) {
+		String value = properties.getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		String[] values = value.split(",");
+		if (values.length != 32) {
+			throw new IllegalArgumentException(key + " needs 32 values, got " + values.length);
+		}
+		int[] table = new int[32];
+		for (int i = 0; i < 32; i++) {
+			table[i] = Integer.parseInt(values[i].trim());
+		}
+		return table;
+	}
+
+	/**
+	 * Folds the weights into the signed tables of the four pieces. The
+	 * opponent's squares are mirrored: its square pos is square 33 - pos
+	 * of the player.
+	 */
+	private void buildTables() {
+		for (int pos = 1; pos <= 32; pos++) {
+			int mirror = 33 - pos;
+			pieces[1][pos] = man + manTable[pos - 1] + (pos <= 4 ? backRank : 0);
+			pieces[2][pos] = -(man + manTable[mirror - 1] + (mirror <= 4 ? backRank : 0));
+			pieces[3][pos] = king + kingTable[pos - 1];
+			pieces[4][pos] = -(king + kingTable[mirror - 1]);
+		}
+		key = (Arrays.deepHashCode(pieces) * 31L + mobility) * 0x9E3779B97F4A7C15L;
+	}
+	
+	/**
+	 * Returns a value that identifies the weights, to be mixed into the
+	 * keys of cached evaluations so that different weights do not share them
+	 * @return the key of the weights
+	 */
+	public long getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns the material, piece-square and back rank terms of a state
+	 * @param state
+	 * @return the sum of the table values of all pieces
+	 */
+	public int material(State state) {
+		int[][] board = state.getBoard();
+		int sum = 0;
+		for (int pos = 1; pos <= 32; pos++) {
+			sum += pieces[board[posToRow(pos)][posToCol(pos)]][pos];
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the change of material(state) when move is played, without
+	 * playing it
+	 * @param state the state the move is played in
+	 * @param move  a legal move of state
+	 * @return material(state.result(move)) - material(state)
+	 */
+	public int delta(State state, Move move) {
+		int[][] board = state.getBoard();
+		int from = move.getFrom();
+		int to = move.getTo();
+		int piece = board[posToRow(from)][posToCol(from)];
+		int newPiece = piece;
+		if (piece == 1 && posToRow(to) == 7) {
+			newPiece = 3;
+		}
+		else if (piece == 2 && posToRow(to) == 0) {
+			newPiece = 4;
+		}
+		int delta = pieces[newPiece][to] - pieces[piece][from];
+		for (int pos : move.getJumps()) {
+			delta -= pieces[board[posToRow(pos)][posToCol(pos)]][pos];
+		}
+		return delta;
+	}
+
+	/**
+	 * Evaluates a non-terminal state
+	 * @param state
+	 * @param material material(state), usually kept up to date with delta
+	 * @return the value of state for the player
+	 */
+	public int evaluate(State state, int material) {
+		int moves = mobility * state.getLegalMoves().size();
+		return material + (state.isPlayersTurn() ? moves : -moves);
+	}
+}
@@ -0,0 +1,60 @@
+package minimax;
+
+import mcts.Move;
+
+/**
+ * Transposition table of Entry objects on the heap, with one entry per
+ * slot. It is not thread-safe.
+ */
+public class HeapTranspositionTable implements TranspositionTable {
+
+	private Entry[] entries;
+	private int mask;
+
+	/**
+	 * Constructor
+	 * @param sizeBits the table holds 2^sizeBits entries
+	 */
+	public HeapTranspositionTable(int sizeBits) {
+		entries = new Entry[1 << sizeBits];
+		mask = entries.length - 1;
+	}
+
+	public Entry probe(long key) {
+		Entry entry = entries[(int) key & mask];
+		if (entry != null && entry.key == key) {
+			return entry;
+		}
+		return null;
+	}
+
+	public void store(long key, Move move, int value, int depth, int flag) {
+		int index = (int) key & mask;
+		Entry entry = entries[index];
+		if (entry == null) {
+			entries[index] = new Entry(key, move, value, depth, flag);
+		}
+		else if (entry.key != key || depth >= entry.depth) {
+			entry.key = key;
+			entry.move = move;
+			entry.value = value;
+			entry.depth = depth;
+			entry.flag = flag;
+		}
+	}
+
+	public void clear() {
+		entries = new Entry[entries.length];
+	}
+
+	public double occupancy() {
+		int sample = Math.min(1000, entries.length);
+		int used = 0;
+		for (int i = 0; i < sample; i++) {
+			if (entries[i] != null) {
+				used++;
+			}
+		}
+		return (double) used / sample;
+	}
+}
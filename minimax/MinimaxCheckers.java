@@ -7,15 +7,98 @@ import java.util.*;
 
 /**
  * Class that implements a minimax checkers player with alpha-beta pruning
- * and cut-off evaluation. Code adapted from
+ * and cut-off evaluation, searched as a principal variation search with
+ * aspiration windows when iterative deepening is used. Code adapted from
  * Stuart Russell and Peter Norvig. Artificial Intelligence:
  * A Modern Approach, Third Edition. Prentice Hall, 2010. ISBN: 978-0-13-604259-4.
  */
-public class MinimaxCheckers {
+public class MinimaxCheckers implements Engine {
+	
+	// Maximum number of plies of a search
+	private static final int MAX_PLY = 64;
+	
+	// Bound above any value of the evaluation
+	private static final int INFINITY = Evaluator.WIN + 1;
 	
 	// The depth limit of the search
 	private int limit = 10;
 	
+	// The depth limit of the current iteration
+	private int currentLimit;
+	
+	// Nodes searched, and the node and time limits of the current search
+	private long nodes;
+	private long maxNodes;
+	private long deadline;
+	
+	// true if the current search ran out of nodes or time
+	private boolean aborted;
+	
+	// Triangular table of principal variations, one row per ply
+	private Move[][] pvTable = new Move[MAX_PLY + 1][MAX_PLY + 1];
+	private int[] pvLength = new int[MAX_PLY + 1];
+	
+	// Evaluation function, and its material term at each ply of the search
+	private Evaluator evaluator = new Evaluator();
+	private int[] material = new int[MAX_PLY + 1];
+	
+	// Principal variation of the previous iteration, searched first
+	private Move[] previousPv = new Move[MAX_PLY + 1];
+	private int previousPvLength;
+	
+	// true while the search is on the previous principal variation
+	private boolean followPv;
+	
+	// true for principal variation search, false for plain alpha-beta
+	private boolean pvs = true;
+	
+	// Half width of the first aspiration window, 0 for full windows
+	private int aspirationWindow = 25;
+	
+	// Late move reductions: quiet moves below the root ordered at index
+	// lateMoves or later are first searched reduction plies shallower, if at
+	// least minReductionDepth plies remain, and searched again at full depth
+	// if the reduced search beats the bound
+	private boolean lateMoveReductions = true;
+	private int lateMoves = 3;
+	private int reduction = 1;
+	private int minReductionDepth = 3;
+	
+	// Futility pruning: within futilityDepth plies of the depth limit, quiet
+	// moves whose material falls futilityMargin per remaining ply short of
+	// the window are not searched
+	private boolean futilityPruning = true;
+	private int futilityDepth = 2;
+	private int futilityMargin = 60;
+	
+	// true if capture sequences are searched past the depth limit
+	private boolean quiescence = true;
+	
+	// Maximum number of plies the quiescence search adds to the depth limit
+	private int maxQuiescenceDepth = 16;
+	
+	// Static evaluations shared with the other searches of the JVM, or null
+	private EvalCache evalCache = EvalCache.evaluations();
+	
+	// Counters of the current search, null if the statistics are disabled,
+	// and of the last finished search
+	private boolean statsEnabled = Boolean.getBoolean("checkers.stats");
+	private SearchStats stats;
+	private SearchStats lastStats;
+	
+	// Nodes of the last completed iteration, for the branching factor
+	private long lastIterationNodes;
+	
+	// Results of earlier searches, kept from move to move
+	private TranspositionTable table = new HeapTranspositionTable(18);
+	
+	// true to key the table by the symmetric hash, so a position and its
+	// colour-swapped mirror share one entry (see Symmetry)
+	private boolean symmetry = true;
+	
+	// The background search started by startPondering, if any
+	private Thread ponderThread;
+	
 	private State startingState;
 	
 	public MinimaxCheckers() {
@@ -26,76 +109,861 @@ public class MinimaxCheckers {
 		startingState = state;
 	}
 	
+	/**
+	 * Returns the best move from the starting state with a search of
+	 * the full depth limit
+	 * @return the best move
+	 */
 	public Move alphaBetaMove() {
+		nodes = 0;
+		maxNodes = 0;
+		deadline = 0;
+		aborted = false;
+		previousPvLength = 0;
+		long startTime = startStats();
+		SearchLimits limits = new SearchLimits();
+		limits.setDepth(limit);
+		SearchEvents.Search event = SearchEvents.begin("minimax", startingState, limits);
+		Move move = rootSearch(limit, Integer.MIN_VALUE, Integer.MAX_VALUE).move;
+		recordIteration(limit, nodes);
+		finishStats(startTime, null);
+		SearchEvents.end(event, startingState, limits, move, nodes, limit);
+		return move;
+	}
+	
+	/**
+	 * Searches from state and returns the best move
+	 * @param state
+	 * @return the best move in state
+	 */
+	public Move getMove(State state) {
+		stopPondering();
+		setStartingState(state);
+		return alphaBetaMove();
+	}
+	
+	/**
+	 * Searches from state by iterative deepening until the depth, time or
+	 * node limit is reached. The result of the deepest completed iteration
+	 * is returned; the first iteration always completes.
+	 * @param state  the state to search
+	 * @param limits the limits of the search, the depth limit of this
+	 *               player is used if no limit is set
+	 * @return the best move, score and principal variation
+	 */
+	public SearchResult search(State state, SearchLimits limits) {
+		boolean ponder = Thread.currentThread() == ponderThread;
+		if (!ponder) {
+			stopPondering();
+		}
+		long startTime = System.nanoTime();
+		startingState = state;
+		int maxDepth = limits.getDepth();
+		if (maxDepth <= 0) {
+			maxDepth = limits.getMillis() > 0 || limits.getNodes() > 0 ? MAX_PLY - 1 : limit;
+		}
+		maxNodes = limits.getNodes();
+		deadline = limits.getMillis() > 0 ? startTime + limits.getMillis() * 1000000L : 0;
+		nodes = 0;
+		aborted = false;
+		startStats();
+		SearchEvents.Search event = SearchEvents.begin("minimax", state, limits, ponder);
+		
+		SearchResult result = null;
+		previousPvLength = 0;
+		for (int depth = 1; depth <= Math.min(maxDepth, MAX_PLY - 1); depth++) {
+			long iterationStart = nodes;
+			// Aspiration window around the value of the previous iteration,
+			// widened until the value falls inside it
+			int alpha = Integer.MIN_VALUE;
+			int beta = Integer.MAX_VALUE;
+			int window = aspirationWindow;
+			int previousValue = result == null ? 0 : (state.isPlayersTurn() ? result.getScore() : -result.getScore());
+			if (window > 0 && result != null) {
+				alpha = previousValue - window;
+				beta = previousValue + window;
+			}
+			MoveValue moveValue;
+			while (true) {
+				moveValue = rootSearch(depth, alpha, beta);
+				if (aborted) {
+					break;
+				}
+				if (moveValue.value <= alpha) {
+					window *= 4;
+					alpha = window > Evaluator.WIN ? Integer.MIN_VALUE : previousValue - window;
+				}
+				else if (moveValue.value >= beta) {
+					window *= 4;
+					beta = window > Evaluator.WIN ? Integer.MAX_VALUE : previousValue + window;
+				}
+				else {
+					break;
+				}
+			}
+			if (aborted && result != null) {
+				break;
+			}
+			int score = state.isPlayersTurn() ? moveValue.value : -moveValue.value;
+			result = new SearchResult(moveValue.move, score, Double.NaN, getPv(), depth, nodes,
+					(System.nanoTime() - startTime) / 1000000L);
+			if (aborted) {
+				break;
+			}
+			recordIteration(depth, nodes - iterationStart);
+			SearchEvents.iteration(state, depth, nodes, score, moveValue.move, ponder);
+			previousPvLength = pvLength[0];
+			for (int i = 0; i < previousPvLength; i++) {
+				previousPv[i] = pvTable[0][i];
+			}
+		}
+		finishStats(startTime, result);
+		SearchEvents.end(event, state, limits, result.getMove(), nodes, result.getDepth());
+		return result;
+	}
+	
+	/**
+	 * Ranks the best count moves of state by iterative deepening, within
+	 * the same limits as search. Every iteration searches the moves in the
+	 * order of the previous one; a move only gets an exact score if a null
+	 * window search shows that it beats the count-th best move so far, so
+	 * the cost grows much slower than count separate searches.
+	 * @param state  the state to search
+	 * @param limits the limits of the search
+	 * @param count  the number of moves to rank
+	 * @return the best move with the ranked moves as its lines
+	 */
+	public SearchResult analyse(State state, SearchLimits limits, int count) {
+		if (Thread.currentThread() != ponderThread) {
+			stopPondering();
+		}
+		long startTime = System.nanoTime();
+		startingState = state;
+		int maxDepth = limits.getDepth();
+		if (maxDepth <= 0) {
+			maxDepth = limits.getMillis() > 0 || limits.getNodes() > 0 ? MAX_PLY - 1 : limit;
+		}
+		maxNodes = limits.getNodes();
+		deadline = limits.getMillis() > 0 ? startTime + limits.getMillis() * 1000000L : 0;
+		nodes = 0;
+		aborted = false;
+		previousPvLength = 0;
+		
+		startStats();
+		SearchEvents.Search event = SearchEvents.begin("minimax", state, limits);
+		
+		ArrayList<Move> moves = state.getLegalMoves();
+		SearchResult result = null;
+		for (int depth = 1; depth <= Math.min(maxDepth, MAX_PLY - 1); depth++) {
+			long iterationStart = nodes;
+			ArrayList<RankedMove> lines = rootSearch(depth, moves, Math.max(1, count));
+			if (aborted && result != null) {
+				break;
+			}
+			RankedMove best = lines.get(0);
+			result = new SearchResult(best.getMove(), best.getScore(), Double.NaN, best.getPv(), depth, nodes,
+					(System.nanoTime() - startTime) / 1000000L);
+			result.setLines(lines);
+			if (aborted) {
+				break;
+			}
+			recordIteration(depth, nodes - iterationStart);
+			SearchEvents.iteration(state, depth, nodes, best.getScore(), best.getMove());
+			// Search the ranked moves first in the next iteration
+			ArrayList<Move> ordered = new ArrayList<Move>();
+			for (RankedMove line : lines) {
+				ordered.add(line.getMove());
+			}
+			for (Move move : moves) {
+				if (!ordered.contains(move)) {
+					ordered.add(move);
+				}
+			}
+			moves = ordered;
+		}
+		finishStats(startTime, result);
+		SearchEvents.end(event, state, limits, result.getMove(), nodes, result.getDepth());
+		return result;
+	}
+	
+	/**
+	 * Starts the counters of a search if the statistics are enabled
+	 * @return the start time of the search
+	 */
+	private long startStats() {
+		stats = statsEnabled ? new SearchStats() : null;
+		lastIterationNodes = 0;
+		return System.nanoTime();
+	}
+	
+	/**
+	 * Records the depth and branching factor of a completed iteration
+	 * @param depth          the depth of the iteration
+	 * @param iterationNodes the nodes of the iteration
+	 */
+	private void recordIteration(int depth, long iterationNodes) {
+		if (stats == null) {
+			return;
+		}
+		stats.setDepth(depth);
+		stats.setBranchingFactor(lastIterationNodes > 0 ? (double) iterationNodes / lastIterationNodes
+				: Math.pow(iterationNodes, 1.0 / depth));
+		lastIterationNodes = iterationNodes;
+	}
+	
+	/**
+	 * Publishes the counters of a finished search
+	 * @param startTime the start time of the search
+	 * @param result    the result of the search, or null
+	 */
+	private void finishStats(long startTime, SearchResult result) {
+		if (stats == null) {
+			return;
+		}
+		stats.setNodes(nodes);
+		stats.setMillis((System.nanoTime() - startTime) / 1000000L);
+		SearchMonitor.forEngine("minimax").record(stats);
+		lastStats = stats;
+		if (result != null) {
+			result.setStats(stats);
+		}
+		stats = null;
+	}
+	
+	/**
+	 * Searches every move of the starting state to a fixed depth and
+	 * keeps the best count of them
+	 * @param depth the depth limit
+	 * @param moves the legal moves of the starting state, best first
+	 * @param count the number of moves to keep
+	 * @return the best moves with their scores for the side to move
+	 */
+	private ArrayList<RankedMove> rootSearch(int depth, ArrayList<Move> moves, int count) {
+		currentLimit = depth;
+		followPv = false;
+		material[0] = evaluator.material(startingState);
+		ArrayList<RankedMove> lines = new ArrayList<RankedMove>();
+		for (Move move : moves) {
+			material[1] = material[0] + evaluator.delta(startingState, move);
+			State child = startingState.result(move);
+			int value;
+			if (lines.size() < count) {
+				value = rootValue(child, -INFINITY, INFINITY);
+			}
+			else {
+				int bound = lines.get(count - 1).getScore();
+				value = rootValue(child, bound, bound + 1);
+				if (!aborted && value > bound) {
+					value = rootValue(child, bound, INFINITY);
+				}
+				else if (!aborted) {
+					continue;
+				}
+			}
+			if (aborted) {
+				break;
+			}
+			ArrayList<Move> pv = new ArrayList<Move>();
+			pv.add(move);
+			for (int i = 1; i < pvLength[1]; i++) {
+				pv.add(pvTable[1][i]);
+			}
+			int index = 0;
+			while (index < lines.size() && lines.get(index).getScore() >= value) {
+				index++;
+			}
+			lines.add(index, new RankedMove(move, value, Double.NaN, 0, Double.NaN, pv));
+			if (lines.size() > count) {
+				lines.remove(count);
+			}
+		}
+		return lines;
+	}
+	
+	/**
+	 * Searches a child of the starting state
+	 * @param child the state after a move of the starting state
+	 * @param alpha the lower bound, for the side to move in the starting state
+	 * @param beta  the upper bound, for the side to move in the starting state
+	 * @return the value of child for the side to move in the starting state
+	 */
+	private int rootValue(State child, int alpha, int beta) {
+		if (startingState.isPlayersTurn()) {
+			return minValue(child, alpha, beta, 1).value;
+		}
+		return -maxValue(child, -beta, -alpha, 1).value;
+	}
+	
+	/**
+	 * Searches the starting state to a fixed depth
+	 * @param depth the depth limit
+	 * @param alpha
+	 * @param beta
+	 * @return the best move and its value
+	 */
+	private MoveValue rootSearch(int depth, int alpha, int beta) {
+		currentLimit = depth;
+		followPv = previousPvLength > 0;
+		material[0] = evaluator.material(startingState);
 		if (startingState.isPlayersTurn()) {
-			return maxValue(startingState, Integer.MIN_VALUE, Integer.MAX_VALUE, 0).move;			
+			return maxValue(startingState, alpha, beta, 0);
 		}
-		return minValue(startingState, Integer.MIN_VALUE, Integer.MAX_VALUE, 0).move;
+		return minValue(startingState, alpha, beta, 0);
 	}
 	
 	public MoveValue maxValue(State state, int alpha, int beta, int depth) {
-		if (depth == limit || state.isTerminalState()) {
-			return new MoveValue(new Move(), evaluation(state));
+		return maxValue(state, alpha, beta, depth, currentLimit);
+	}
+	
+	private MoveValue maxValue(State state, int alpha, int beta, int depth, int depthLimit) {
+		nodes++;
+		pvLength[depth] = depth;
+		if (state.isTerminalState() || shouldStop()) {
+			return new MoveValue(new Move(), evaluation(state, depth));
+		}
+		if (depth >= depthLimit) {
+			return new MoveValue(new Move(), quiescence ? quiescence(state, alpha, beta, depth) : evaluation(state, depth));
+		}
+		TranspositionTable.Entry entry = probe(state);
+		if (entry != null && stats != null) {
+			stats.addTtHit();
+		}
+		if (entry != null && depth > 0 && entry.depth >= depthLimit - depth
+				&& (entry.flag == TranspositionTable.EXACT
+				|| (entry.flag == TranspositionTable.LOWER && entry.value >= beta)
+				|| (entry.flag == TranspositionTable.UPPER && entry.value <= alpha))) {
+			return new MoveValue(entry.move, entry.value);
 		}
-		depth++;
+		int originalAlpha = alpha;
 		MoveValue moveValue = new MoveValue(new Move(), Integer.MIN_VALUE);
-		for (Move move : state.getLegalMoves()) {
-			moveValue.move = move;
-			moveValue.value = Math.max(moveValue.value, minValue(state.result(move), alpha, beta, depth).value);
-			if (moveValue.value >= beta) {
+		boolean first = true;
+		int index = 0;
+		int remaining = depthLimit - depth;
+		boolean futile = futilityPruning && remaining <= futilityDepth && depth > 0;
+		for (Move move : orderMoves(state.getLegalMoves(), pvMove(state, depth), entry == null ? null : entry.move)) {
+			material[depth + 1] = material[depth] + evaluator.delta(state, move);
+			boolean quiet = !first && isQuiet(state, move);
+			if (quiet && futile && material[depth + 1] + futilityMargin * remaining <= alpha) {
+				index++;
+				continue;
+			}
+			State child = state.result(move);
+			int value;
+			if (first) {
+				value = minValue(child, alpha, beta, depth + 1, depthLimit).value;
+			}
+			else {
+				value = alpha + 1;
+				if (quiet && lateMoveReductions && depth > 0 && index >= lateMoves && remaining >= minReductionDepth) {
+					value = minValue(child, alpha, alpha + 1, depth + 1, depthLimit - reduction).value;
+				}
+				// Null window at full depth: only prove that the move is not better than alpha
+				if (!aborted && value > alpha && pvs) {
+					value = minValue(child, alpha, alpha + 1, depth + 1, depthLimit).value;
+				}
+				if (!aborted && value > alpha && (value < beta || !pvs)) {
+					value = minValue(child, alpha, beta, depth + 1, depthLimit).value;
+				}
+			}
+			index++;
+			first = false;
+			followPv = false;
+			if (aborted) {
 				return moveValue;
 			}
+			if (value > moveValue.value) {
+				moveValue.move = move;
+				moveValue.value = value;
+				updatePv(depth, move);
+			}
+			if (moveValue.value >= beta) {
+				if (stats != null) {
+					stats.addCutoff();
+				}
+				break;
+			}
 			alpha = Math.max(alpha, moveValue.value);
 		}
+		int flag = moveValue.value >= beta ? TranspositionTable.LOWER
+				: moveValue.value <= originalAlpha ? TranspositionTable.UPPER : TranspositionTable.EXACT;
+		store(state, moveValue.move, moveValue.value, depthLimit - depth, flag);
 		return moveValue;
 	}
 	
 	public MoveValue minValue(State state, int alpha, int beta, int depth) {
-		if (depth == limit || state.isTerminalState()) {
-			return new MoveValue(new Move(), evaluation(state));
+		return minValue(state, alpha, beta, depth, currentLimit);
+	}
+	
+	private MoveValue minValue(State state, int alpha, int beta, int depth, int depthLimit) {
+		nodes++;
+		pvLength[depth] = depth;
+		if (state.isTerminalState() || shouldStop()) {
+			return new MoveValue(new Move(), evaluation(state, depth));
+		}
+		if (depth >= depthLimit) {
+			return new MoveValue(new Move(), quiescence ? quiescence(state, alpha, beta, depth) : evaluation(state, depth));
 		}
-		depth++;
+		TranspositionTable.Entry entry = probe(state);
+		if (entry != null && stats != null) {
+			stats.addTtHit();
+		}
+		if (entry != null && depth > 0 && entry.depth >= depthLimit - depth
+				&& (entry.flag == TranspositionTable.EXACT
+				|| (entry.flag == TranspositionTable.LOWER && entry.value >= beta)
+				|| (entry.flag == TranspositionTable.UPPER && entry.value <= alpha))) {
+			return new MoveValue(entry.move, entry.value);
+		}
+		int originalBeta = beta;
 		MoveValue moveValue = new MoveValue(new Move(), Integer.MAX_VALUE);
-		for (Move move : state.getLegalMoves()) {
-			moveValue.move = move;
-			moveValue.value = Math.min(moveValue.value, maxValue(state.result(move), alpha, beta, depth).value);
-			if (moveValue.value <= alpha) {
+		boolean first = true;
+		int index = 0;
+		int remaining = depthLimit - depth;
+		boolean futile = futilityPruning && remaining <= futilityDepth && depth > 0;
+		for (Move move : orderMoves(state.getLegalMoves(), pvMove(state, depth), entry == null ? null : entry.move)) {
+			material[depth + 1] = material[depth] + evaluator.delta(state, move);
+			boolean quiet = !first && isQuiet(state, move);
+			if (quiet && futile && material[depth + 1] - futilityMargin * remaining >= beta) {
+				index++;
+				continue;
+			}
+			State child = state.result(move);
+			int value;
+			if (first) {
+				value = maxValue(child, alpha, beta, depth + 1, depthLimit).value;
+			}
+			else {
+				value = beta - 1;
+				if (quiet && lateMoveReductions && depth > 0 && index >= lateMoves && remaining >= minReductionDepth) {
+					value = maxValue(child, beta - 1, beta, depth + 1, depthLimit - reduction).value;
+				}
+				// Null window at full depth: only prove that the move is not better than beta
+				if (!aborted && value < beta && pvs) {
+					value = maxValue(child, beta - 1, beta, depth + 1, depthLimit).value;
+				}
+				if (!aborted && value < beta && (value > alpha || !pvs)) {
+					value = maxValue(child, alpha, beta, depth + 1, depthLimit).value;
+				}
+			}
+			index++;
+			first = false;
+			followPv = false;
+			if (aborted) {
 				return moveValue;
 			}
+			if (value < moveValue.value) {
+				moveValue.move = move;
+				moveValue.value = value;
+				updatePv(depth, move);
+			}
+			if (moveValue.value <= alpha) {
+				if (stats != null) {
+					stats.addCutoff();
+				}
+				break;
+			}
 			beta = Math.min(beta, moveValue.value);
 		}
+		int flag = moveValue.value <= alpha ? TranspositionTable.UPPER
+				: moveValue.value >= originalBeta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+		store(state, moveValue.move, moveValue.value, depthLimit - depth, flag);
 		return moveValue;
 	}
 	
-	public int diffEvaluation(State state) {
-		HashMap<String, Integer> differences = state.getDifferences();
-		return differences.get("opponent") - differences.get("player") + 4 * (differences.get("playerKing") - differences.get("opponentKing"));
+	/**
+	 * Searches the capture sequences of a state at the depth limit, so that
+	 * a position in the middle of an exchange is never evaluated. Captures
+	 * are compulsory, so a state with captures has no stand-pat value and
+	 * all of its captures are searched. A state without captures is quiet
+	 * and its evaluation stands. The static evaluation is also used as the
+	 * bound when the extra depth runs out.
+	 * @param state the state at or below the depth limit
+	 * @param alpha
+	 * @param beta
+	 * @param depth the number of plies from the root
+	 * @return the value of state
+	 */
+	private int quiescence(State state, int alpha, int beta, int depth) {
+		ArrayList<Move> moves = state.getLegalMoves();
+		if (state.isTerminalState() || moves.get(0).getNumJumps() == 0
+				|| depth - currentLimit >= maxQuiescenceDepth || depth >= MAX_PLY - 1) {
+			return evaluation(state, depth);
+		}
+		boolean maximize = state.isPlayersTurn();
+		int best = maximize ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+		for (Move move : moves) {
+			nodes++;
+			if (shouldStop()) {
+				return best == Integer.MIN_VALUE || best == Integer.MAX_VALUE ? evaluation(state, depth) : best;
+			}
+			material[depth + 1] = material[depth] + evaluator.delta(state, move);
+			int value = quiescence(state.result(move), alpha, beta, depth + 1);
+			if (maximize) {
+				best = Math.max(best, value);
+				if (best >= beta) {
+					return best;
+				}
+				alpha = Math.max(alpha, best);
+			}
+			else {
+				best = Math.min(best, value);
+				if (best <= alpha) {
+					return best;
+				}
+				beta = Math.min(beta, best);
+			}
+		}
+		return best;
 	}
 	
-	public int numEvaluation(State state) {
-		HashMap<String, Integer> numPieces = state.getNumPieces();
-		return 2 * (numPieces.get("player") - numPieces.get("opponent")) + 4 * (numPieces.get("playerKing") - numPieces.get("opponentKing"));
+	/**
+	 * Returns the move of the previous iteration's principal variation at
+	 * this ply, as long as the search is still following that variation
+	 * @param state the state at depth
+	 * @param depth the ply of state
+	 * @return the principal variation move, or null
+	 */
+	private Move pvMove(State state, int depth) {
+		if (!followPv) {
+			return null;
+		}
+		if (depth < previousPvLength && state.getLegalMoves().contains(previousPv[depth])) {
+			return previousPv[depth];
+		}
+		followPv = false;
+		return null;
 	}
 	
-	public int evaluation(State state) {
-		if (state.isTerminalState()) {
-			if (state.playerWins()) {
-				return 1000;
+	/**
+	 * Returns the moves with the principal variation move first and the
+	 * best move stored in the transposition table next
+	 * @param moves  the legal moves
+	 * @param pvMove the principal variation move, or null
+	 * @param ttMove the transposition table move, or null
+	 * @return the ordered moves
+	 */
+	private ArrayList<Move> orderMoves(ArrayList<Move> moves, Move pvMove, Move ttMove) {
+		int pvIndex = pvMove == null ? -1 : moves.indexOf(pvMove);
+		int ttIndex = ttMove == null ? -1 : moves.indexOf(ttMove);
+		if (pvIndex <= 0 && ttIndex <= 0) {
+			return moves;
+		}
+		ArrayList<Move> ordered = new ArrayList<Move>(moves.size());
+		if (pvIndex >= 0) {
+			ordered.add(moves.get(pvIndex));
+		}
+		if (ttIndex >= 0 && ttIndex != pvIndex) {
+			ordered.add(moves.get(ttIndex));
+		}
+		for (int i = 0; i < moves.size(); i++) {
+			if (i != pvIndex && i != ttIndex) {
+				ordered.add(moves.get(i));
 			}
-			else if (state.opponentWins()) {
-				return -1000;
-			} else {
-				return 0;
+		}
+		return ordered;
+	}
+	
+	/**
+	 * Returns true if a move neither captures nor promotes, so that it may be
+	 * reduced or pruned
+	 * @param state the state the move is played in
+	 * @param move  a legal move of state
+	 * @return true for a quiet move
+	 */
+	private boolean isQuiet(State state, Move move) {
+		if (!move.getJumps().isEmpty()) {
+			return false;
+		}
+		int[][] board = state.getBoard();
+		int piece = board[posToRow(move.getFrom())][posToCol(move.getFrom())];
+		return !(piece == 1 && posToRow(move.getTo()) == 7) && !(piece == 2 && posToRow(move.getTo()) == 0);
+	}
+	
+	/**
+	 * Checks the node and time limits and whether the searching thread
+	 * was interrupted. The limits never stop the first iteration so that
+	 * there is always a move to play.
+	 * @return true if the search has to stop
+	 */
+	private boolean shouldStop() {
+		if ((nodes & 1023) == 0 && Thread.currentThread().isInterrupted()) {
+			aborted = true;
+		}
+		if (currentLimit > 1 && ((maxNodes > 0 && nodes >= maxNodes)
+				|| (deadline != 0 && (nodes & 1023) == 0 && System.nanoTime() >= deadline))) {
+			aborted = true;
+		}
+		return aborted;
+	}
+	
+	/**
+	 * Makes move followed by the principal variation of the next ply the
+	 * principal variation at depth
+	 * @param depth
+	 * @param move
+	 */
+	private void updatePv(int depth, Move move) {
+		pvTable[depth][depth] = move;
+		for (int i = depth + 1; i < pvLength[depth + 1]; i++) {
+			pvTable[depth][i] = pvTable[depth + 1][i];
+		}
+		pvLength[depth] = Math.max(pvLength[depth + 1], depth + 1);
+	}
+	
+	/**
+	 * Returns the principal variation of the last search
+	 * @return the moves of the principal variation
+	 */
+	public ArrayList<Move> getPv() {
+		ArrayList<Move> pv = new ArrayList<Move>();
+		for (int i = 0; i < pvLength[0]; i++) {
+			pv.add(pvTable[0][i]);
+		}
+		return pv;
+	}
+	
+	public long getNodes() {
+		return nodes;
+	}
+	
+	/**
+	 * Starts searching in the background while the opponent thinks. The
+	 * search follows the reply predicted by the last principal variation
+	 * and fills the transposition table, so the next search is faster,
+	 * most of all when the prediction was right.
+	 * @param state the state after this player's move
+	 */
+	public synchronized void startPondering(State state) {
+		stopPondering();
+		if (state.isTerminalState()) {
+			return;
+		}
+		State ponderState = state.result(predictReply(state));
+		if (ponderState.isTerminalState()) {
+			return;
+		}
+		SearchLimits limits = new SearchLimits();
+		limits.setDepth(MAX_PLY - 1);
+		ponderThread = new Thread(() -> search(ponderState, limits), "minimax-ponder");
+		ponderThread.setDaemon(true);
+		ponderThread.start();
+	}
+	
+	/**
+	 * Stops the background search and waits for it to end
+	 */
+	public synchronized void stopPondering() {
+		if (ponderThread == null) {
+			return;
+		}
+		ponderThread.interrupt();
+		boolean interrupted = false;
+		while (ponderThread.isAlive()) {
+			try {
+				ponderThread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
 			}
 		}
-		
-		return diffEvaluation(state) + 3 * numEvaluation(state); 
+		ponderThread = null;
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Returns the opponent's most likely reply: the second move of the last
+	 * principal variation, else the best move in the transposition table,
+	 * else the first legal move
+	 * @param state the state after this player's move
+	 * @return a legal move of state
+	 */
+	private Move predictReply(State state) {
+		ArrayList<Move> moves = state.getLegalMoves();
+		ArrayList<Move> pv = getPv();
+		if (pv.size() >= 2 && moves.contains(pv.get(1))) {
+			return moves.get(moves.indexOf(pv.get(1)));
+		}
+		TranspositionTable.Entry entry = probe(state);
+		if (entry != null && moves.contains(entry.move)) {
+			return moves.get(moves.indexOf(entry.move));
+		}
+		return moves.get(0);
+	}
+	
+	/**
+	 * Evaluates a state from scratch
+	 * @param state
+	 * @return the value of state for the player
+	 */
+	public int evaluation(State state) {
+		if (state.isTerminalState()) {
+			return terminalValue(state);
+		}
+		return evaluator.evaluate(state, evaluator.material(state));
+	}
+	
+	/**
+	 * Evaluates a state of the search, using the material kept up to date
+	 * for its ply
+	 * @param state
+	 * @param depth the ply of state
+	 * @return the value of state for the player
+	 */
+	private int evaluation(State state, int depth) {
+		if (state.isTerminalState()) {
+			return terminalValue(state);
+		}
+		if (evalCache == null) {
+			return evaluator.evaluate(state, material[depth]);
+		}
+		// The evaluation is symmetric, so a state and its mirror share an entry
+		long key = state.getSymmetricHash() ^ evaluator.getKey();
+		long value = evalCache.get(key, Long.MIN_VALUE);
+		if (value == Long.MIN_VALUE) {
+			value = evaluator.evaluate(state, material[depth]);
+			evalCache.put(key, Symmetry.sign(state) * value);
+			return (int) value;
+		}
+		return Symmetry.sign(state) * (int) value;
+	}
+	
+	/**
+	 * Returns the transposition table entry of a state, with its value and
+	 * move converted from the canonical form if the table is symmetric
+	 * @param state
+	 * @return the entry, or null if the state is not in the table
+	 */
+	private TranspositionTable.Entry probe(State state) {
+		if (!symmetry) {
+			return table.probe(state.getHash());
+		}
+		TranspositionTable.Entry entry = table.probe(state.getSymmetricHash());
+		if (entry == null || Symmetry.isCanonical(state)) {
+			return entry;
+		}
+		return new TranspositionTable.Entry(entry.key, Symmetry.mirror(entry.move), -entry.value, entry.depth,
+				mirrorFlag(entry.flag));
+	}
+	
+	/**
+	 * Stores the result of a search of a state, converted to the canonical
+	 * form if the table is symmetric
+	 */
+	private void store(State state, Move move, int value, int depth, int flag) {
+		if (!symmetry) {
+			table.store(state.getHash(), move, value, depth, flag);
+		}
+		else if (Symmetry.isCanonical(state)) {
+			table.store(state.getSymmetricHash(), move, value, depth, flag);
+		}
+		else {
+			table.store(state.getSymmetricHash(), Symmetry.mirror(move), -value, depth, mirrorFlag(flag));
+		}
+	}
+	
+	/**
+	 * Returns the bound of a negated value: a lower bound becomes an upper
+	 * bound and the other way round
+	 */
+	private static int mirrorFlag(int flag) {
+		return flag == TranspositionTable.LOWER ? TranspositionTable.UPPER
+				: flag == TranspositionTable.UPPER ? TranspositionTable.LOWER : flag;
+	}
+	
+	private int terminalValue(State state) {
+		if (state.playerWins()) {
+			return Evaluator.WIN;
+		}
+		else if (state.opponentWins()) {
+			return -Evaluator.WIN;
+		}
+		return 0;
 	}
 	
 	public void setDepthLimit(int limit) {
 		this.limit = limit;
 	}
 	
+	public void setEvaluator(Evaluator evaluator) {
+		this.evaluator = evaluator;
+	}
+	
+	public Evaluator getEvaluator() {
+		return evaluator;
+	}
+	
+	public void setPvs(boolean pvs) {
+		this.pvs = pvs;
+	}
+	
+	public void setAspirationWindow(int aspirationWindow) {
+		this.aspirationWindow = aspirationWindow;
+	}
+	
+	public void setLateMoveReductions(boolean lateMoveReductions) {
+		this.lateMoveReductions = lateMoveReductions;
+	}
+	
+	public void setLateMoves(int lateMoves) {
+		this.lateMoves = lateMoves;
+	}
+	
+	public void setReduction(int reduction) {
+		this.reduction = reduction;
+	}
+	
+	public void setMinReductionDepth(int minReductionDepth) {
+		this.minReductionDepth = minReductionDepth;
+	}
+	
+	public void setFutilityPruning(boolean futilityPruning) {
+		this.futilityPruning = futilityPruning;
+	}
+	
+	public void setFutilityDepth(int futilityDepth) {
+		this.futilityDepth = futilityDepth;
+	}
+	
+	public void setFutilityMargin(int futilityMargin) {
+		this.futilityMargin = futilityMargin;
+	}
+	
+	public void setStatsEnabled(boolean statsEnabled) {
+		this.statsEnabled = statsEnabled;
+	}
+	
+	/**
+	 * Returns the counters of the last finished search
+	 * @return the counters, or null if the statistics were disabled
+	 */
+	public SearchStats getLastStats() {
+		return lastStats;
+	}
+	
+	public void setEvalCache(EvalCache evalCache) {
+		this.evalCache = evalCache;
+	}
+	
+	public void setQuiescence(boolean quiescence) {
+		this.quiescence = quiescence;
+	}
+	
+	public void setMaxQuiescenceDepth(int maxQuiescenceDepth) {
+		this.maxQuiescenceDepth = maxQuiescenceDepth;
+	}
+	
+	public TranspositionTable getTranspositionTable() {
+		return table;
+	}
+	
+	public void setTranspositionTable(TranspositionTable table) {
+		this.table = table;
+	}
+	
+	public void setSymmetry(boolean symmetry) {
+		this.symmetry = symmetry;
+	}
+	
 	public void setStartingState(State state) {
 		startingState = state;
 	}
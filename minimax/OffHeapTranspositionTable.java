@@ -0,0 +1,103 @@
+package minimax;
+
+import java.nio.ByteBuffer;
+
+import mcts.Move;
+
+/**
+ * Transposition table in direct memory, so that a table of millions of
+ * entries costs the garbage collector nothing. Every entry is a 16-byte
+ * bucket of two longs, the key xor the data followed by the data, where
+ * the data packs the value, remaining depth, flag and the from and to
+ * squares of the move.
+ *
+ * The table takes no locks: threads read and write the two longs of a
+ * bucket without synchronization, and a bucket whose words were written
+ * by two different stores no longer xors to its key, so a torn entry is
+ * read as a miss instead of a wrong one.
+ */
+public class OffHeapTranspositionTable implements TranspositionTable {
+
+	private static final int BUCKET_BYTES = 16;
+
+	// Buckets of a buffer, which cannot be larger than 2 GB
+	private static final int SEGMENT_BITS = 26;
+
+	// Set in the data of every stored entry, so that empty buckets are all zero
+	private static final long USED = 1L << 38;
+
+	private ByteBuffer[] segments;
+	private long mask;
+
+	/**
+	 * Constructor
+	 * @param megabytes the size of the table, rounded down to a power of two
+	 *                  of buckets
+	 */
+	public OffHeapTranspositionTable(int megabytes) {
+		long buckets = Long.highestOneBit(Math.max(1, (long) megabytes << 20) / BUCKET_BYTES);
+		mask = buckets - 1;
+		long perSegment = Math.min(buckets, 1L << SEGMENT_BITS);
+		segments = new ByteBuffer[(int) (buckets / perSegment)];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = ByteBuffer.allocateDirect((int) (perSegment * BUCKET_BYTES));
+		}
+	}
+
+	public Entry probe(long key) {
+		long index = key & mask;
+		ByteBuffer segment = segments[(int) (index >>> SEGMENT_BITS)];
+		int offset = (int) (index & ((1L << SEGMENT_BITS) - 1)) * BUCKET_BYTES;
+		long data = segment.getLong(offset + 8);
+		if (data == 0 || (segment.getLong(offset) ^ data) != key) {
+			return null;
+		}
+		Move move = new Move((int) (data >>> 26) & 0x3F, (int) (data >>> 32) & 0x3F);
+		return new Entry(key, move, (short) data, (int) (data >>> 16) & 0xFF, (int) (data >>> 24) & 0x3);
+	}
+
+	public void store(long key, Move move, int value, int depth, int flag) {
+		long index = key & mask;
+		ByteBuffer segment = segments[(int) (index >>> SEGMENT_BITS)];
+		int offset = (int) (index & ((1L << SEGMENT_BITS) - 1)) * BUCKET_BYTES;
+		long old = segment.getLong(offset + 8);
+		if (old != 0 && (segment.getLong(offset) ^ old) == key && ((old >>> 16) & 0xFF) > depth) {
+			return;
+		}
+		long data = (Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value)) & 0xFFFFL)
+				| (long) Math.max(0, Math.min(255, depth)) << 16
+				| (long) flag << 24
+				| (long) (move.getFrom() & 0x3F) << 26
+				| (long) (move.getTo() & 0x3F) << 32
+				| USED;
+		segment.putLong(offset, key ^ data);
+		segment.putLong(offset + 8, data);
+	}
+
+	public void clear() {
+		for (ByteBuffer segment : segments) {
+			for (int offset = 0; offset < segment.capacity(); offset += 8) {
+				segment.putLong(offset, 0);
+			}
+		}
+	}
+
+	public double occupancy() {
+		long sample = Math.min(1000, mask + 1);
+		int used = 0;
+		for (int i = 0; i < sample; i++) {
+			if (segments[0].getLong(i * BUCKET_BYTES + 8) != 0) {
+				used++;
+			}
+		}
+		return (double) used / sample;
+	}
+
+	/**
+	 * Returns the number of buckets
+	 * @return the number of entries the table can hold
+	 */
+	public long capacity() {
+		return mask + 1;
+	}
+}
@@ -0,0 +1,73 @@
+package minimax;
+
+import mcts.Move;
+
+/**
+ * Transposition table for the alpha-beta search. Stores the value of a
+ * searched state, the remaining depth it was searched to, whether the
+ * value is exact or a bound, and the best move. Values are from the
+ * player's point of view, like the values of maxValue and minValue.
+ *
+ * The search only compares the stored move with the legal moves of the
+ * state, so a table may return a move with just its from and to squares.
+ */
+public interface TranspositionTable {
+
+	// The value is exact
+	int EXACT = 0;
+
+	// The value is a lower bound (the search failed high)
+	int LOWER = 1;
+
+	// The value is an upper bound (the search failed low)
+	int UPPER = 2;
+
+	/**
+	 * Returns the entry of a state
+	 * @param key the hash of the state
+	 * @return the entry, or null if the state is not in the table
+	 */
+	Entry probe(long key);
+
+	/**
+	 * Stores the result of a search. An entry of the same state that was
+	 * searched deeper is kept.
+	 * @param key   the hash of the state
+	 * @param move  the best move found
+	 * @param value the value found
+	 * @param depth the remaining depth of the search
+	 * @param flag  EXACT, LOWER or UPPER
+	 */
+	void store(long key, Move move, int value, int depth, int flag);
+
+	/**
+	 * Removes all entries
+	 */
+	void clear();
+
+	/**
+	 * Returns the share of the table in use, estimated from its first
+	 * thousand slots
+	 * @return the occupancy between 0 and 1
+	 */
+	double occupancy();
+
+	/**
+	 * An entry of the table
+	 */
+	class Entry {
+		public long key;
+		public Move move;
+		public int value;
+		public int depth;
+		public int flag;
+
+		public Entry(long key, Move move, int value, int depth, int flag) {
+			this.key = key;
+			this.move = move;
+			this.value = value;
+			this.depth = depth;
+			this.flag = flag;
+		}
+	}
+}
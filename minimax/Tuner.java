@@ -0,0 +1,409 @@
+package minimax;
+
+import static mcts.State.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import mcts.Pdn;
+import mcts.SelfPlay;
+import mcts.State;
+
+/**
+ * Texel-style tuning of the Evaluator weights. The evaluation is linear in
+ * its weights, so every labelled position is reduced once to the sparse
+ * vector of its features (piece counts, back rank men, signed mobility
+ * and the squares of men and kings) and kept in primitive arrays. The
+ * weights are then fitted so that a sigmoid of the evaluation predicts the
+ * results of the games, by gradient descent on the mean squared error with
+ * the gradient summed over the positions in parallel. The error has a
+ * penalty on the squared distance from the start weights, which keeps
+ * rarely seen squares near their start value on small data sets.
+ *
+ * Positions are read from PDN files, labelled with the result of their
+ * game, and from SelfPlay shards, labelled with the result of the sample.
+ * Positions where the side to move must capture are skipped, as their
+ * static evaluation is misleading.
+ *
+ * Usage: Tuner --data games.pdn --data selfplay/ [--output eval.properties]
+ *              [--weights start.properties] [--epochs 300] [--rate 1]
+ *              [--regularization 1e-5] [--threads N] [--keep-captures true]
+ */
+public class Tuner {
+
+	// Indexes of the weights
+	private static final int MAN = 0;
+	private static final int KING = 1;
+	private static final int BACK_RANK = 2;
+	private static final int MOBILITY = 3;
+	private static final int MAN_TABLE = 4;
+	private static final int KING_TABLE = MAN_TABLE + 32;
+	private static final int WEIGHTS = KING_TABLE + 32;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private boolean keepCaptures;
+
+	// Weight of the squared distance of the weights from the start weights in the error
+	private double regularization = 1e-5;
+
+	// Position i has the features index[offset[i]] to index[offset[i + 1] - 1]
+	// with the values value[...], and the result label[i] for the player
+	private int size;
+	private int[] offset = new int[1024];
+	private byte[] index = new byte[1024 * 16];
+	private byte[] value = new byte[1024 * 16];
+	private float[] label = new float[1024];
+
+	// Scratch array of the features of the position being added
+	private int[] features = new int[WEIGHTS];
+
+	/**
+	 * Adds a labelled position
+	 * @param state  a non-terminal state
+	 * @param result the result of the game for the player: 1, 0.5 or 0
+	 * @return true if the position was added, false if it was skipped
+	 */
+	public boolean add(State state, double result) {
+		if (state.isTerminalState() || (!keepCaptures && state.getLegalMoves().get(0).getNumJumps() > 0)) {
+			return false;
+		}
+		Arrays.fill(features, 0);
+		int[][] board = state.getBoard();
+		for (int pos = 1; pos <= 32; pos++) {
+			int mirror = 33 - pos;
+			switch (board[posToRow(pos)][posToCol(pos)]) {
+			case 1:
+				features[MAN]++;
+				features[MAN_TABLE + pos - 1]++;
+				features[BACK_RANK] += pos <= 4 ? 1 : 0;
+				break;
+			case 2:
+				features[MAN]--;
+				features[MAN_TABLE + mirror - 1]--;
+				features[BACK_RANK] -= mirror <= 4 ? 1 : 0;
+				break;
+			case 3:
+				features[KING]++;
+				features[KING_TABLE + pos - 1]++;
+				break;
+			case 4:
+				features[KING]--;
+				features[KING_TABLE + mirror - 1]--;
+				break;
+			}
+		}
+		int moves = state.getLegalMoves().size();
+		features[MOBILITY] = state.isPlayersTurn() ? moves : -moves;
+
+		int start = offset[size];
+		if (size + 2 > offset.length) {
+			offset = Arrays.copyOf(offset, offset.length * 2);
+			label = Arrays.copyOf(label, label.length * 2);
+		}
+		if (start + WEIGHTS > index.length) {
+			index = Arrays.copyOf(index, index.length * 2);
+			value = Arrays.copyOf(value, value.length * 2);
+		}
+		int end = start;
+		for (int i = 0; i < WEIGHTS; i++) {
+			if (features[i] != 0) {
+				index[end] = (byte) i;
+				value[end] = (byte) features[i];
+				end++;
+			}
+		}
+		label[size] = (float) result;
+		offset[++size] = end;
+		return true;
+	}
+
+	/**
+	 * Adds the positions of a PDN file, or of every SelfPlay shard of a
+	 * directory or file ending in .gz
+	 * @param path the file or directory
+	 * @return the number of positions added
+	 * @throws IOException
+	 */
+	public int load(Path path) throws IOException {
+		int before = size;
+		if (Files.isDirectory(path)) {
+			try (Stream<Path> files = Files.list(path)) {
+				for (Path file : (Iterable<Path>) files.sorted()::iterator) {
+					if (file.getFileName().toString().endsWith(".gz")) {
+						load(file);
+					}
+				}
+			}
+		}
+		else if (path.getFileName().toString().endsWith(".gz")) {
+			try (Stream<SelfPlay.Sample> samples = SelfPlay.samples(path)) {
+				for (SelfPlay.Sample sample : (Iterable<SelfPlay.Sample>) samples::iterator) {
+					double result = (sample.getResult() + 1) / 2.0;
+					add(sample.getState(), sample.getState().isPlayersTurn() ? result : 1 - result);
+				}
+			}
+		}
+		else {
+			try (Stream<Pdn.Game> games = Pdn.games(path)) {
+				for (Pdn.Game game : (Iterable<Pdn.Game>) games::iterator) {
+					double result = game.getPlayerScore();
+					if (Double.isNaN(result)) {
+						continue;
+					}
+					for (State state : game.getStates()) {
+						add(state, result);
+					}
+				}
+			}
+		}
+		return size - before;
+	}
+
+	/**
+	 * Returns the weights of an evaluator in the order of the features
+	 * @param evaluator
+	 * @return the weights
+	 */
+	private static double[] weights(Evaluator evaluator) {
+		double[] weights = new double[WEIGHTS];
+		weights[MAN] = evaluator.getMan();
+		weights[KING] = evaluator.getKing();
+		weights[BACK_RANK] = evaluator.getBackRank();
+		weights[MOBILITY] = evaluator.getMobility();
+		int[] manTable = evaluator.getManTable();
+		int[] kingTable = evaluator.getKingTable();
+		for (int i = 0; i < 32; i++) {
+			weights[MAN_TABLE + i] = manTable[i];
+			weights[KING_TABLE + i] = kingTable[i];
+		}
+		return weights;
+	}
+
+	/**
+	 * Returns the evaluator with the rounded weights
+	 * @param weights the weights in the order of the features
+	 * @return the evaluator
+	 */
+	private static Evaluator evaluator(double[] weights) {
+		int[] manTable = new int[32];
+		int[] kingTable = new int[32];
+		for (int i = 0; i < 32; i++) {
+			manTable[i] = (int) Math.round(weights[MAN_TABLE + i]);
+			kingTable[i] = (int) Math.round(weights[KING_TABLE + i]);
+		}
+		return new Evaluator((int) Math.round(weights[MAN]), (int) Math.round(weights[KING]),
+				(int) Math.round(weights[BACK_RANK]), (int) Math.round(weights[MOBILITY]), manTable, kingTable);
+	}
+
+	/**
+	 * The predicted score of an evaluation for the player
+	 */
+	private static double sigmoid(double k, double evaluation) {
+		return 1 / (1 + Math.pow(10, -k * evaluation / 400));
+	}
+
+	private double evaluate(double[] weights, int i) {
+		double sum = 0;
+		for (int j = offset[i]; j < offset[i + 1]; j++) {
+			sum += weights[index[j]] * value[j];
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the mean squared error of the predictions, and adds its
+	 * gradient to gradient if it is not null. The positions are split
+	 * into one slice per thread.
+	 */
+	private double error(ExecutorService pool, double[] weights, double k, double[] gradient)
+			throws InterruptedException {
+		List<Future<double[]>> slices = new ArrayList<Future<double[]>>();
+		int slice = (size + threads - 1) / threads;
+		for (int t = 0; t < threads; t++) {
+			final int from = Math.min(size, t * slice);
+			final int to = Math.min(size, from + slice);
+			slices.add(pool.submit(() -> {
+				// The error followed by the gradient of the slice
+				double[] sums = new double[1 + (gradient == null ? 0 : WEIGHTS)];
+				for (int i = from; i < to; i++) {
+					double p = sigmoid(k, evaluate(weights, i));
+					double e = p - label[i];
+					sums[0] += e * e;
+					if (gradient != null) {
+						double d = 2 * e * p * (1 - p) * k * Math.log(10) / 400;
+						for (int j = offset[i]; j < offset[i + 1]; j++) {
+							sums[1 + index[j]] += d * value[j];
+						}
+					}
+				}
+				return sums;
+			}));
+		}
+		double error = 0;
+		for (Future<double[]> future : slices) {
+			double[] sums;
+			try {
+				sums = future.get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Tuning failed", e.getCause());
+			}
+			error += sums[0];
+			if (gradient != null) {
+				for (int j = 0; j < WEIGHTS; j++) {
+					gradient[j] += sums[1 + j] / size;
+				}
+			}
+		}
+		return error / size;
+	}
+
+	/**
+	 * Finds the scale of the sigmoid that best fits the start weights, by a
+	 * golden section search
+	 */
+	private double fitScale(ExecutorService pool, double[] weights) throws InterruptedException {
+		double low = 0.05;
+		double high = 5;
+		double ratio = (Math.sqrt(5) - 1) / 2;
+		for (int i = 0; i < 30; i++) {
+			double a = high - ratio * (high - low);
+			double b = low + ratio * (high - low);
+			if (error(pool, weights, a, null) < error(pool, weights, b, null)) {
+				high = b;
+			}
+			else {
+				low = a;
+			}
+		}
+		return (low + high) / 2;
+	}
+
+	/**
+	 * Tunes the weights of an evaluator on the loaded positions with Adam
+	 * @param start  the start weights
+	 * @param epochs the number of gradient steps over all positions
+	 * @param rate   the learning rate, in evaluation points
+	 * @return the evaluator with the tuned weights
+	 * @throws InterruptedException
+	 */
+	public Evaluator tune(Evaluator start, int epochs, double rate) throws InterruptedException {
+		if (size == 0) {
+			throw new IllegalStateException("No positions to tune on");
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			double[] weights = weights(start);
+			double[] startWeights = weights.clone();
+			double k = fitScale(pool, weights);
+			double error = error(pool, weights, k, null);
+			System.out.printf("# positions %d scale %.4f error %.6f%n", size, k, error);
+			double[] m = new double[WEIGHTS];
+			double[] v = new double[WEIGHTS];
+			double beta1 = 0.9;
+			double beta2 = 0.999;
+			for (int epoch = 1; epoch <= epochs; epoch++) {
+				double[] gradient = new double[WEIGHTS];
+				error = error(pool, weights, k, gradient);
+				for (int j = 0; j < WEIGHTS; j++) {
+					double distance = weights[j] - startWeights[j];
+					error += regularization * distance * distance;
+					gradient[j] += 2 * regularization * distance;
+					m[j] = beta1 * m[j] + (1 - beta1) * gradient[j];
+					v[j] = beta2 * v[j] + (1 - beta2) * gradient[j] * gradient[j];
+					double mHat = m[j] / (1 - Math.pow(beta1, epoch));
+					double vHat = v[j] / (1 - Math.pow(beta2, epoch));
+					weights[j] -= rate * mHat / (Math.sqrt(vHat) + 1e-12);
+				}
+				if (epoch % 50 == 0 || epoch == epochs) {
+					System.out.printf("# epoch %d error %.6f%n", epoch, error);
+				}
+			}
+			Evaluator tuned = evaluator(weights);
+			System.out.printf("# rounded error %.6f%n", error(pool, weights(tuned), k, null));
+			return tuned;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void setRegularization(double regularization) {
+		this.regularization = regularization;
+	}
+
+	public void setKeepCaptures(boolean keepCaptures) {
+		this.keepCaptures = keepCaptures;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		List<Path> data = new ArrayList<Path>();
+		Path output = Paths.get("eval.properties");
+		Evaluator start = new Evaluator();
+		int epochs = 300;
+		double rate = 1;
+		Tuner tuner = new Tuner();
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value for " + args[i]);
+			}
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "--data":
+				data.add(Paths.get(value));
+				break;
+			case "--output":
+				output = Paths.get(value);
+				break;
+			case "--weights":
+				start = new Evaluator(Paths.get(value));
+				break;
+			case "--epochs":
+				epochs = Integer.parseInt(value);
+				break;
+			case "--rate":
+				rate = Double.parseDouble(value);
+				break;
+			case "--threads":
+				tuner.setThreads(Integer.parseInt(value));
+				break;
+			case "--regularization":
+				tuner.setRegularization(Double.parseDouble(value));
+				break;
+			case "--keep-captures":
+				tuner.setKeepCaptures(Boolean.parseBoolean(value));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+		if (data.isEmpty()) {
+			throw new IllegalArgumentException("Missing --data");
+		}
+		long startTime = System.currentTimeMillis();
+		for (Path path : data) {
+			System.out.println("# " + path + " positions " + tuner.load(path));
+		}
+		long loaded = System.currentTimeMillis();
+		Evaluator tuned = tuner.tune(start, epochs, rate);
+		tuned.save(output);
+		System.out.println("# load " + (loaded - startTime) + " ms tune " + (System.currentTimeMillis() - loaded)
+				+ " ms, weights written to " + output);
+	}
+}